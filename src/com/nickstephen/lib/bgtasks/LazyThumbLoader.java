@@ -2,34 +2,325 @@ package com.nickstephen.lib.bgtasks;
 
 import java.io.File;
 import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.nickstephen.lib.Twig;
+import com.nickstephen.lib.misc.BitmapPool;
+import com.nickstephen.lib.misc.BitmapUtil;
 
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
-import android.os.AsyncTask;
+import android.graphics.drawable.BitmapDrawable;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.Looper;
 import android.widget.ImageView;
 
-public class LazyThumbLoader extends AsyncTask<String, Void, Bitmap> {
+/**
+ * Loads an image thumbnail in the background and sets it on an {@link ImageView}. Work runs on a
+ * {@link PriorityExecutor} rather than the executor AsyncTask shares with the rest of the app, in the visible
+ * lane unless asked otherwise, and results are delivered on the UI thread. The callbacks mirror AsyncTask's.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class LazyThumbLoader {
+	private static Handler sMainHandler;
+	
 	protected final WeakReference<ImageView> mImgViewRef;
+	protected final int mReqWidth;
+	protected final int mReqHeight;
+	protected final BitmapPool mPool;
+	protected final ThumbnailCache mCache;
+	private final AtomicBoolean mStarted = new AtomicBoolean(false);
+	private final AtomicBoolean mCancelled = new AtomicBoolean(false);
+	private PriorityExecutor mExecutor;
+	private Runnable mWork;
+	private volatile Thread mThread;
+	private boolean mProgressive = false;
+	/**
+	 * Options of the progressive decode in progress, so cancelling can stop it
+	 */
+	private volatile BitmapFactory.Options mDecodeOptions;
+	/**
+	 * The progressive preview set on the view, to give back to the pool once it's been replaced. Only used
+	 * on the UI thread.
+	 */
+	private Bitmap mPreview;
 	
 	public LazyThumbLoader(ImageView imgView) {
+		this(imgView, 0, 0, (BitmapPool) null);
+	}
+	
+	/**
+	 * Create a loader that decodes a thumbnail fitting inside the given size, from the image's embedded EXIF
+	 * thumbnail if it's big enough
+	 * @param imgView The view to set the thumbnail on
+	 * @param reqWidth The requested width (0 to decode at full size)
+	 * @param reqHeight The requested height (0 to decode at full size)
+	 * @param pool Pool to reuse bitmaps from and give unused results back to (may be null)
+	 */
+	public LazyThumbLoader(ImageView imgView, int reqWidth, int reqHeight, BitmapPool pool) {
 		mImgViewRef = new WeakReference<ImageView>(imgView);
+		mReqWidth = reqWidth;
+		mReqHeight = reqHeight;
+		mPool = pool;
+		mCache = null;
+	}
+	
+	/**
+	 * Create a loader that gets its thumbnail through a cache, so repeat loads of the same image come
+	 * from memory or the pre-scaled copy on disk.
+	 * @param imgView The view to set the thumbnail on
+	 * @param reqWidth The requested width
+	 * @param reqHeight The requested height
+	 * @param cache The cache to load through
+	 */
+	public LazyThumbLoader(ImageView imgView, int reqWidth, int reqHeight, ThumbnailCache cache) {
+		mImgViewRef = new WeakReference<ImageView>(imgView);
+		mReqWidth = reqWidth;
+		mReqHeight = reqHeight;
+		mPool = null;
+		mCache = cache;
+	}
+	
+	/**
+	 * Show a thumbnail through a cache. If it's already in memory it's set on the view straight away,
+	 * without touching the file system or starting a task.
+	 * @param imgView The view to set the thumbnail on
+	 * @param path The path of the image
+	 * @param reqWidth The requested width
+	 * @param reqHeight The requested height
+	 * @param cache The cache to load through
+	 * @return The started loader or null if the thumbnail was in memory
+	 */
+	public static LazyThumbLoader load(ImageView imgView, String path, int reqWidth, int reqHeight, ThumbnailCache cache) {
+		Bitmap cached = cache.getFromMemory(path, reqWidth, reqHeight);
+		if (cached != null) {
+			imgView.setImageBitmap(cached);
+			return null;
+		}
+		LazyThumbLoader loader = new LazyThumbLoader(imgView, reqWidth, reqHeight, cache);
+		loader.execute(path);
+		return loader;
+	}
+	
+	/**
+	 * Show a quick low resolution preview first, then replace it with the properly sized thumbnail. Both
+	 * stages share one open of the file and are cancelled together, and the preview goes back to the pool
+	 * once the thumbnail replaces it. Must be called before the loader is executed.
+	 * <p>
+	 * Only applies to loaders given a size and no cache: a {@link ThumbnailCache} hands out finished
+	 * thumbnails, so loaders going through one (including those of {@link #load} and
+	 * {@link ThumbLoaderManager}) never show a preview.
+	 * @param progressive True to load in two stages
+	 */
+	public void setProgressive(boolean progressive) {
+		mProgressive = progressive;
+	}
+	
+	private static synchronized Handler getMainHandler() {
+		if (sMainHandler == null) {
+			sMainHandler = new Handler(Looper.getMainLooper());
+		}
+		return sMainHandler;
+	}
+	
+	/**
+	 * Start loading in the visible lane of the default executor. Must be called on the UI thread.
+	 * @param params The path of the image
+	 * @return This loader
+	 */
+	public final LazyThumbLoader execute(String... params) {
+		return execute(PriorityExecutor.getDefault(), PriorityExecutor.LANE_VISIBLE, params);
+	}
+	
+	/**
+	 * Start loading. Must be called on the UI thread.
+	 * @param executor The executor to load on
+	 * @param lane {@link PriorityExecutor#LANE_VISIBLE} or {@link PriorityExecutor#LANE_PREFETCH}
+	 * @param params The path of the image
+	 * @return This loader
+	 * @throws IllegalStateException If the loader has already been started
+	 */
+	public final LazyThumbLoader execute(PriorityExecutor executor, int lane, final String... params) {
+		if (!mStarted.compareAndSet(false, true)) {
+			throw new IllegalStateException("Cannot execute task: the task has already been executed");
+		}
+		onPreExecute();
+		final Handler handler = getMainHandler();
+		mWork = new Runnable() {
+			@Override
+			public void run() {
+				Bitmap result = null;
+				if (!isCancelled()) {
+					mThread = Thread.currentThread();
+					try {
+						result = doInBackground(params);
+					} catch (RuntimeException e) {
+						// Still deliver a (null) result so whoever started the loader hears it finished
+						Twig.printStackTrace(e);
+					} finally {
+						mThread = null;
+					}
+				}
+				final Bitmap finalResult = result;
+				handler.post(new Runnable() {
+					@Override
+					public void run() {
+						if (isCancelled()) {
+							onCancelled(finalResult);
+						} else {
+							onPostExecute(finalResult);
+						}
+					}
+				});
+			}
+		};
+		mExecutor = executor;
+		executor.execute(mWork, lane);
+		return this;
 	}
 	
-	@Override
+	/**
+	 * Cancel loading. {@link #onCancelled(Bitmap)} is called on the UI thread instead of
+	 * {@link #onPostExecute(Bitmap)}.
+	 * @param mayInterruptIfRunning Whether to interrupt the decode if it's already running
+	 * @return False if the loader had already been cancelled
+	 */
+	public final boolean cancel(boolean mayInterruptIfRunning) {
+		if (!mCancelled.compareAndSet(false, true)) {
+			return false;
+		}
+		if (mExecutor != null && mExecutor.remove(mWork)) {
+			// Never going to run, so tell the subclass now
+			getMainHandler().post(new Runnable() {
+				@Override
+				public void run() {
+					onCancelled(null);
+				}
+			});
+		} else {
+			BitmapFactory.Options options = mDecodeOptions;
+			if (options != null) {
+				options.requestCancelDecode();
+			}
+		}
+		if (mayInterruptIfRunning) {
+			Thread thread = mThread;
+			if (thread != null) {
+				thread.interrupt();
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * @return True if the loader has been cancelled
+	 */
+	public final boolean isCancelled() {
+		return mCancelled.get();
+	}
+	
+	/**
+	 * Called on the UI thread before loading starts
+	 */
+	protected void onPreExecute() {
+	}
+	
+	/**
+	 * Load the thumbnail. Called on a background thread.
+	 * @param params The path of the image
+	 * @return The thumbnail or null if it couldn't be loaded
+	 */
 	protected Bitmap doInBackground(String... params) {
+		if (isCancelled()) {
+			return null;
+		} else if (mCache != null) {
+			return mCache.load(params[0], mReqWidth, mReqHeight);
+		}
 		File imgFile = new File(params[0]);
 		if (!imgFile.exists()) {
 			return null;
+		} else if (mReqWidth > 0 && mReqHeight > 0 && mProgressive) {
+			mDecodeOptions = new BitmapFactory.Options();
+			try {
+				return BitmapUtil.decodeProgressive(params[0], mReqWidth, mReqHeight, mDecodeOptions, 
+						new BitmapUtil.PreviewCallback() {
+					@Override
+					public void onPreview(final Bitmap preview) {
+						getMainHandler().post(new Runnable() {
+							@Override
+							public void run() {
+								ImageView imgView;
+								if (!isCancelled() && (imgView = mImgViewRef.get()) != null) {
+									imgView.setImageBitmap(preview);
+									mPreview = preview;
+								} else {
+									recycle(preview);
+								}
+							}
+						});
+					}
+					
+					@Override
+					public boolean isCancelled() {
+						return LazyThumbLoader.this.isCancelled();
+					}
+				}, mPool);
+			} finally {
+				mDecodeOptions = null;
+			}
+		} else if (mReqWidth > 0 && mReqHeight > 0) {
+			return BitmapUtil.decodeThumbnail(params[0], mReqWidth, mReqHeight, mPool);
 		} else {
 			return BitmapFactory.decodeFile(params[0]);
 		}
 	}
 	
-	@Override
+	/**
+	 * Called on the UI thread with the result unless the loader was cancelled
+	 * @param result The thumbnail (may be null)
+	 */
 	protected void onPostExecute(Bitmap result) {
 		ImageView imgView;
 		if (result != null && (imgView = mImgViewRef.get()) != null) {
+			final boolean showingPreview = isShowing(imgView, mPreview);
 			imgView.setImageBitmap(result);
+			if (showingPreview) {
+				recycle(mPreview);
+			}
+			mPreview = null;
+		} else {
+			recycle(result);
+		}
+	}
+	
+	/**
+	 * Is a view showing a bitmap? If it isn't, something else has replaced it and may still be using it.
+	 */
+	private static boolean isShowing(ImageView imgView, Bitmap bitmap) {
+		if (bitmap == null) {
+			return false;
+		}
+		Drawable drawable = imgView.getDrawable();
+		return drawable instanceof BitmapDrawable && ((BitmapDrawable) drawable).getBitmap() == bitmap;
+	}
+	
+	/**
+	 * Called on the UI thread instead of {@link #onPostExecute(Bitmap)} if the loader was cancelled
+	 * @param result The thumbnail if it was loaded anyway (may be null)
+	 */
+	protected void onCancelled(Bitmap result) {
+		recycle(result);
+	}
+	
+	/**
+	 * Give a result that won't be shown back to the pool. Loaders using a cache have no pool since the
+	 * cache still holds the result.
+	 */
+	private void recycle(Bitmap result) {
+		if (result != null && mPool != null) {
+			mPool.put(result);
 		}
 	}
 }
@@ -0,0 +1,194 @@
+package com.nickstephen.lib.bgtasks;
+
+import java.util.LinkedList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import com.nickstephen.lib.Twig;
+
+import android.os.Process;
+
+/**
+ * An executor for background work like thumbnail decodes, kept apart from the executor {@link android.os.AsyncTask}
+ * shares with the rest of the app. It has one background priority thread per core and two lanes:
+ * {@link #LANE_VISIBLE} for work the user is waiting on, and {@link #LANE_PREFETCH} which only runs when
+ * there's no visible work queued, on at most all but one of the threads. One thread is always kept free of
+ * prefetch work for visible work to start on straight away, so an executor with a single thread never runs
+ * prefetch work at all. Each lane runs last in, first out so the most recently requested work (e.g. the rows
+ * just scrolled to) goes first.
+ * <p>
+ * Thread safe.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class PriorityExecutor implements Executor {
+	private static final String TAG = "PriorityExecutor";
+	/**
+	 * Lane for work the user is waiting on
+	 */
+	public static final int LANE_VISIBLE = 0;
+	/**
+	 * Lane for speculative work, only run when there's nothing visible queued
+	 */
+	public static final int LANE_PREFETCH = 1;
+	
+	private static PriorityExecutor sDefault;
+	
+	private final int mThreads;
+	private final int mMaxPrefetching;
+	private final LinkedList<Runnable> mVisible = new LinkedList<Runnable>();
+	private final LinkedList<Runnable> mPrefetch = new LinkedList<Runnable>();
+	private int mStarted = 0;
+	private int mIdle = 0;
+	private int mPrefetching = 0;
+	private boolean mShutdown = false;
+	
+	/**
+	 * Get the executor shared by the library, with a thread per core and at least two so there's one
+	 * for prefetching
+	 */
+	public static synchronized PriorityExecutor getDefault() {
+		if (sDefault == null) {
+			sDefault = new PriorityExecutor(Math.max(2, Runtime.getRuntime().availableProcessors()));
+		}
+		return sDefault;
+	}
+	
+	/**
+	 * Create a new executor. Threads are started as they're needed.
+	 * @param threads The number of threads to run work on
+	 */
+	public PriorityExecutor(int threads) {
+		mThreads = Math.max(1, threads);
+		mMaxPrefetching = mThreads - 1;
+	}
+	
+	/**
+	 * Run some work in the visible lane
+	 */
+	@Override
+	public void execute(Runnable command) {
+		execute(command, LANE_VISIBLE);
+	}
+	
+	/**
+	 * Run some work
+	 * @param command The work
+	 * @param lane {@link #LANE_VISIBLE} or {@link #LANE_PREFETCH}
+	 * @throws RejectedExecutionException If the executor has been shut down
+	 */
+	public synchronized void execute(Runnable command, int lane) {
+		if (command == null) {
+			throw new NullPointerException();
+		}
+		if (mShutdown) {
+			throw new RejectedExecutionException("Executor has been shut down");
+		}
+		(lane == LANE_PREFETCH ? mPrefetch : mVisible).addFirst(command);
+		if (mIdle > 0) {
+			notify();
+		}
+		if (mVisible.size() + mPrefetch.size() > mIdle && mStarted < mThreads) {
+			startThread();
+		}
+	}
+	
+	/**
+	 * Remove work that hasn't started yet
+	 * @param command The work
+	 * @return True if it was removed, false if it had already started or was never queued
+	 */
+	public synchronized boolean remove(Runnable command) {
+		return mVisible.remove(command) || mPrefetch.remove(command);
+	}
+	
+	/**
+	 * Move queued work to the front of a lane, e.g. when a prefetched thumbnail becomes visible
+	 * @param command The work
+	 * @param lane The lane to move it to
+	 * @return True if it was moved, false if it had already started or was never queued
+	 */
+	public synchronized boolean promote(Runnable command, int lane) {
+		if (!remove(command)) {
+			return false;
+		}
+		execute(command, lane);
+		return true;
+	}
+	
+	/**
+	 * Stop taking work and let the threads finish once the queues are empty
+	 */
+	public synchronized void shutdown() {
+		mShutdown = true;
+		notifyAll();
+	}
+	
+	/**
+	 * @return The number of pieces of work queued but not yet started in a lane
+	 */
+	public synchronized int getQueuedCount(int lane) {
+		return (lane == LANE_PREFETCH ? mPrefetch : mVisible).size();
+	}
+	
+	private void startThread() {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+				work();
+			}
+		}, TAG + " #" + (++mStarted));
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	private void work() {
+		while (true) {
+			Runnable command;
+			boolean prefetch;
+			synchronized (this) {
+				while (true) {
+					if (!mVisible.isEmpty()) {
+						command = mVisible.removeFirst();
+						prefetch = false;
+						break;
+					} else if (!mPrefetch.isEmpty() && mPrefetching < mMaxPrefetching) {
+						command = mPrefetch.removeFirst();
+						prefetch = true;
+						mPrefetching++;
+						break;
+					} else if (mShutdown) {
+						mStarted--;
+						return;
+					}
+					mIdle++;
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						// Only work gets interrupted, keep going
+					} finally {
+						mIdle--;
+					}
+				}
+			}
+			
+			try {
+				command.run();
+			} catch (RuntimeException e) {
+				Twig.printStackTrace(e);
+			} finally {
+				// Clear an interrupt meant for the work so it doesn't hit the next piece
+				Thread.interrupted();
+				if (prefetch) {
+					synchronized (this) {
+						mPrefetching--;
+						if (!mPrefetch.isEmpty()) {
+							notify();
+						}
+					}
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package com.nickstephen.lib.bgtasks;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import android.graphics.Bitmap;
+import android.widget.ImageView;
+
+/**
+ * Binds thumbnails to {@link ImageView}s (e.g. in recycled list rows) through a {@link ThumbnailCache}.
+ * In flight loads are keyed by path, so views asking for a thumbnail that's already loading just wait on
+ * the same load. Binding a view again moves it off its previous load, which is cancelled if no other live
+ * view is bound to its path, and a result is only ever set on views still bound to its path. Views bound
+ * to a load that fails are unbound, so binding them again retries.
+ * <p>
+ * Must only be used from the UI thread.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class ThumbLoaderManager {
+	private final ThumbnailCache mCache;
+	private final int mReqWidth;
+	private final int mReqHeight;
+	/**
+	 * View -> the path it currently wants. Weak so views that go away don't leak.
+	 */
+	private final WeakHashMap<ImageView, String> mBindings = new WeakHashMap<ImageView, String>();
+	/**
+	 * Path -> the load in flight for it
+	 */
+	private final HashMap<String, Request> mInFlight = new HashMap<String, Request>();
+	
+	private int mLoads = 0;
+	private int mCoalesced = 0;
+	private int mCancelled = 0;
+	
+	/**
+	 * Create a new manager
+	 * @param cache The cache to load thumbnails through
+	 * @param reqWidth The requested thumbnail width
+	 * @param reqHeight The requested thumbnail height
+	 */
+	public ThumbLoaderManager(ThumbnailCache cache, int reqWidth, int reqHeight) {
+		mCache = cache;
+		mReqWidth = reqWidth;
+		mReqHeight = reqHeight;
+	}
+	
+	/**
+	 * Show the thumbnail of an image in a view, replacing whatever the view was bound to before.
+	 * Thumbnails in memory are set straight away.
+	 * @param imgView The view
+	 * @param path The path of the image
+	 */
+	public void bind(ImageView imgView, String path) {
+		String previous = mBindings.get(imgView);
+		if (path.equals(previous)) {
+			return;
+		}
+		unbind(imgView);
+		
+		Bitmap cached = mCache.getFromMemory(path, mReqWidth, mReqHeight);
+		if (cached != null) {
+			imgView.setImageBitmap(cached);
+			return;
+		}
+		
+		imgView.setImageDrawable(null);
+		mBindings.put(imgView, path);
+		Request request = mInFlight.get(path);
+		if (request != null) {
+			mCoalesced++;
+		} else {
+			mLoads++;
+			request = new Request(path);
+			mInFlight.put(path, request);
+			request.execute(path);
+		}
+	}
+	
+	/**
+	 * Stop a view waiting for its thumbnail. The load is cancelled if no other view wants it.
+	 * @param imgView The view
+	 */
+	public void unbind(ImageView imgView) {
+		String path = mBindings.remove(imgView);
+		if (path == null) {
+			return;
+		}
+		Request request = mInFlight.get(path);
+		if (request != null && !isBound(path)) {
+			mInFlight.remove(path);
+			mCancelled++;
+			request.cancel(false);
+		}
+	}
+	
+	/**
+	 * Cancel every load and forget every binding, e.g. when the list goes away
+	 */
+	public void cancelAll() {
+		Iterator<Map.Entry<String, Request>> it = mInFlight.entrySet().iterator();
+		while (it.hasNext()) {
+			it.next().getValue().cancel(false);
+			mCancelled++;
+			it.remove();
+		}
+		mBindings.clear();
+	}
+	
+	/**
+	 * @return The number of loads started
+	 */
+	public int getLoadCount() {
+		return mLoads;
+	}
+	
+	/**
+	 * @return The number of binds that joined a load already in flight instead of starting their own
+	 */
+	public int getCoalescedCount() {
+		return mCoalesced;
+	}
+	
+	/**
+	 * @return The number of loads cancelled because nothing wanted them any more
+	 */
+	public int getCancelledCount() {
+		return mCancelled;
+	}
+	
+	/**
+	 * Is any view still bound to a path? Counting the live bindings rather than keeping a count of waiting
+	 * views means views that were collected without being unbound don't keep a load alive.
+	 */
+	private boolean isBound(String path) {
+		// Iterating a WeakHashMap skips (and expunges) views that have been collected
+		for (String bound : mBindings.values()) {
+			if (path.equals(bound)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	private void deliver(Request request, Bitmap result) {
+		if (mInFlight.get(request.mPath) == request) {
+			mInFlight.remove(request.mPath);
+		}
+		// Drop the bindings even without a result, otherwise binding the same path again would be a no-op
+		Iterator<Map.Entry<ImageView, String>> it = mBindings.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<ImageView, String> entry = it.next();
+			if (request.mPath.equals(entry.getValue())) {
+				if (result != null) {
+					entry.getKey().setImageBitmap(result);
+				}
+				it.remove();
+			}
+		}
+	}
+	
+	private class Request extends LazyThumbLoader {
+		private final String mPath;
+		
+		private Request(String path) {
+			super(null, ThumbLoaderManager.this.mReqWidth, ThumbLoaderManager.this.mReqHeight, ThumbLoaderManager.this.mCache);
+			mPath = path;
+		}
+		
+		@Override
+		protected void onPostExecute(Bitmap result) {
+			deliver(this, result);
+		}
+	}
+}
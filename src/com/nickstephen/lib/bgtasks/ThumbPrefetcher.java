@@ -0,0 +1,245 @@
+package com.nickstephen.lib.bgtasks;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import com.nickstephen.lib.misc.DecodePolicy;
+
+import android.os.SystemClock;
+
+/**
+ * Loads thumbnails just off screen into a {@link ThumbnailCache} ahead of time, so scrolling shows them
+ * straight away instead of blank tiles. Tell it the adapter's paths and the visible range every time the
+ * range changes (e.g. from an OnScrollListener); it works out the scroll speed from that and prefetches
+ * further ahead in the direction of scrolling the faster it goes, never more than fits in the memory cache
+ * alongside the visible rows (older thumbnails are left to the cache's LRU eviction). Prefetches run in the
+ * {@link PriorityExecutor#LANE_PREFETCH} lane and ones that fall out of range before they start are dropped. Queued prefetches for paths that become visible are moved to the visible lane.
+ * <p>
+ * Must only be used from the UI thread.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class ThumbPrefetcher {
+	/**
+	 * How far ahead to prefetch, in terms of how long scrolling at the current speed takes to get there
+	 */
+	private static final long LOOKAHEAD_MS = 1000;
+	/**
+	 * Prefetch at most this many screens ahead no matter how fast the scrolling
+	 */
+	private static final int MAX_SCREENS_AHEAD = 6;
+	/**
+	 * Range updates further apart than this are treated as a new scroll rather than a speed change
+	 */
+	private static final long MAX_VELOCITY_GAP_MS = 500;
+	/**
+	 * Thumbnails are assumed to be of photos, which are nearly all JPEGs
+	 */
+	private static final String MIME_TYPE = "image/jpeg";
+	
+	private final ThumbnailCache mCache;
+	private final PriorityExecutor mExecutor;
+	private final int mReqWidth;
+	private final int mReqHeight;
+	private List<String> mPaths = Collections.emptyList();
+	/**
+	 * Path -> its prefetch, until it finishes
+	 */
+	private final Map<String, Runnable> mPending = Collections.synchronizedMap(new HashMap<String, Runnable>());
+	
+	private int mLastFirst = -1;
+	private long mLastTime = 0;
+	/**
+	 * Scroll speed in items per millisecond, positive towards the end of the list
+	 */
+	private float mVelocity = 0f;
+	
+	private int mPrefetched = 0;
+	private int mDropped = 0;
+	
+	/**
+	 * Create a new prefetcher
+	 * @param cache The cache to load into
+	 * @param executor The executor to load on
+	 * @param reqWidth The requested thumbnail width
+	 * @param reqHeight The requested thumbnail height
+	 */
+	public ThumbPrefetcher(ThumbnailCache cache, PriorityExecutor executor, int reqWidth, int reqHeight) {
+		mCache = cache;
+		mExecutor = executor;
+		mReqWidth = reqWidth;
+		mReqHeight = reqHeight;
+	}
+	
+	/**
+	 * Set the paths of the images in the list, in adapter order. Drops every queued prefetch.
+	 * @param paths The paths. Kept by reference, so call again if the list changes.
+	 */
+	public void setPaths(List<String> paths) {
+		cancel();
+		mPaths = paths != null ? paths : Collections.<String>emptyList();
+		mLastFirst = -1;
+		mVelocity = 0f;
+	}
+	
+	/**
+	 * Update the visible range and prefetch around it
+	 * @param first The position of the first visible item
+	 * @param count The number of visible items
+	 */
+	public void onVisibleRangeChanged(int first, int count) {
+		final long now = SystemClock.uptimeMillis();
+		if (mLastFirst >= 0 && now - mLastTime < MAX_VELOCITY_GAP_MS) {
+			if (now > mLastTime) {
+				// Smooth it a little since scroll callbacks are jittery
+				float velocity = (float) (first - mLastFirst) / (now - mLastTime);
+				mVelocity = (mVelocity + velocity) / 2;
+			}
+		} else {
+			mVelocity = 0f;
+		}
+		mLastFirst = first;
+		mLastTime = now;
+		
+		count = Math.max(1, count);
+		final int size = mPaths.size();
+		final int total = getWindowSize(count);
+		final int ahead, behind;
+		if (mVelocity == 0f) {
+			// Not scrolling so split it evenly, a screen either way at most
+			ahead = behind = Math.min(count, total / 2);
+		} else {
+			// Whatever the budget leaves goes behind, though never more than one screen
+			ahead = Math.min(total, Math.max(count, Math.round(Math.abs(mVelocity) * LOOKAHEAD_MS)));
+			behind = Math.min(count, total - ahead);
+		}
+		final int start, end;
+		if (mVelocity < 0f) {
+			start = Math.max(0, first - ahead);
+			end = Math.min(size, first + count + behind);
+		} else {
+			start = Math.max(0, first - behind);
+			end = Math.min(size, first + count + ahead);
+		}
+		
+		dropOutside(start, end);
+		
+		// Visible paths that are only queued as prefetches should go first
+		for (int i = Math.max(0, first); i < Math.min(size, first + count); i++) {
+			Runnable pending = mPending.get(mPaths.get(i));
+			if (pending != null) {
+				mExecutor.promote(pending, PriorityExecutor.LANE_VISIBLE);
+			}
+		}
+		
+		// Nearest last, since lanes run last in first out
+		final int span = Math.max(first - start, end - first - count);
+		for (int distance = span; distance > 0; distance--) {
+			if (mVelocity < 0f) {
+				prefetch(first + count - 1 + distance, start, end);
+				prefetch(first - distance, start, end);
+			} else {
+				prefetch(first - distance, start, end);
+				prefetch(first + count - 1 + distance, start, end);
+			}
+		}
+	}
+	
+	/**
+	 * Get the number of thumbnails to keep around the visible range, given how many fit in the memory cache
+	 * alongside the visible ones. The cache is usually full while scrolling a big gallery, which is fine:
+	 * its LRU eviction makes room by dropping thumbnails that scrolled away.
+	 */
+	private int getWindowSize(int count) {
+		final DecodePolicy policy = mCache.getDecodePolicy();
+		long perThumb = (long) mReqWidth * mReqHeight * policy.getBytesPerPixel(MIME_TYPE);
+		if (policy.getMaxBytes() > 0) {
+			perThumb = Math.min(perThumb, policy.getMaxBytes());
+		}
+		perThumb = Math.max(1L, perThumb);
+		final long fit = mCache.getMaxMemorySize() / perThumb - count;
+		return (int) Math.max(0, Math.min(fit, (long) count * MAX_SCREENS_AHEAD));
+	}
+	
+	private void prefetch(int position, int start, int end) {
+		if (position < start || position >= end) {
+			return;
+		}
+		final String path = mPaths.get(position);
+		if (path == null || mPending.containsKey(path) || mCache.isInMemory(path, mReqWidth, mReqHeight)) {
+			return;
+		}
+		Runnable work = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					mCache.load(path, mReqWidth, mReqHeight);
+				} finally {
+					mPending.remove(path);
+				}
+			}
+		};
+		mPending.put(path, work);
+		mPrefetched++;
+		mExecutor.execute(work, PriorityExecutor.LANE_PREFETCH);
+	}
+	
+	/**
+	 * Drop queued prefetches outside a range of positions
+	 */
+	private void dropOutside(int start, int end) {
+		HashMap<String, Boolean> keep = new HashMap<String, Boolean>();
+		for (int i = start; i < end; i++) {
+			keep.put(mPaths.get(i), Boolean.TRUE);
+		}
+		synchronized (mPending) {
+			Iterator<Map.Entry<String, Runnable>> it = mPending.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Runnable> entry = it.next();
+				if (!keep.containsKey(entry.getKey()) && mExecutor.remove(entry.getValue())) {
+					mDropped++;
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Drop every queued prefetch, e.g. when the list goes away. Ones already running finish.
+	 */
+	public void cancel() {
+		synchronized (mPending) {
+			Iterator<Runnable> it = mPending.values().iterator();
+			while (it.hasNext()) {
+				if (mExecutor.remove(it.next())) {
+					mDropped++;
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * @return The current scroll speed in items per second, positive towards the end of the list
+	 */
+	public float getVelocity() {
+		return mVelocity * 1000;
+	}
+	
+	/**
+	 * @return The number of prefetches started
+	 */
+	public int getPrefetchCount() {
+		return mPrefetched;
+	}
+	
+	/**
+	 * @return The number of prefetches dropped before they ran
+	 */
+	public int getDroppedCount() {
+		return mDropped;
+	}
+}
@@ -0,0 +1,423 @@
+package com.nickstephen.lib.bgtasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.nickstephen.lib.Twig;
+import com.nickstephen.lib.misc.AtomicFileWriter;
+import com.nickstephen.lib.misc.BitConverter;
+import com.nickstephen.lib.misc.BitmapPool;
+import com.nickstephen.lib.misc.BitmapUtil;
+import com.nickstephen.lib.misc.DecodePolicy;
+import com.nickstephen.lib.misc.Hex;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+/**
+ * A two level cache of image thumbnails. Recently used thumbnails are kept in memory up to a byte budget,
+ * and every thumbnail is also written to a cache directory pre-scaled so it can be decoded again without
+ * touching the original image. Disk entries are keyed by the image's path, last modified time, length and
+ * the thumbnail size, so changed images are decoded again; the directory is trimmed oldest first to its
+ * own byte budget.
+ * <p>
+ * Memory lookups are by path and size only so that they don't have to touch the file system. Call
+ * {@link #invalidate(String)} if an image is known to have changed. Thread safe.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class ThumbnailCache {
+	private static final String TAG = "ThumbnailCache";
+	private static final String HASH_ALGORITHM = "SHA-1";
+	private static final int QUALITY = 85;
+
+	private final LinkedHashMap<String, Bitmap> mMemory = new LinkedHashMap<String, Bitmap>(32, 0.75f, true);
+	private final long mMaxMemoryBytes;
+	/**
+	 * Memory key -> lock held while that thumbnail is being loaded
+	 */
+	private final HashMap<String, Object> mLoading = new HashMap<String, Object>();
+	private long mMemoryBytes = 0;
+
+	private final File mDiskDir;
+	private final long mMaxDiskBytes;
+	/**
+	 * Bytes used on disk, or -1 until the directory has been scanned
+	 */
+	private long mDiskBytes = -1;
+	private final Bitmap.CompressFormat mFormat;
+	private final BitmapPool mPool;
+	private volatile DecodePolicy mPolicy = DecodePolicy.DEFAULT;
+
+	/**
+	 * Guards mDiskBytes and trimming. Never held while encoding a thumbnail.
+	 */
+	private final Object mDiskLock = new Object();
+
+	// Atomic so counting a hit on the UI thread never waits on anything
+	private final AtomicInteger mMemoryHits = new AtomicInteger();
+	private final AtomicInteger mDiskHits = new AtomicInteger();
+	private final AtomicInteger mMisses = new AtomicInteger();
+
+	/**
+	 * Create a new cache
+	 * @param diskDir The directory to keep thumbnails in (e.g. a sub directory of the app's cache dir). It's
+	 * created if needed.
+	 * @param maxMemoryBytes The maximum number of bytes of bitmaps to keep in memory
+	 * @param maxDiskBytes The maximum number of bytes of thumbnails to keep on disk
+	 * @param pool A pool to reuse bitmaps from while decoding (may be null)
+	 */
+	public ThumbnailCache(File diskDir, long maxMemoryBytes, long maxDiskBytes, BitmapPool pool) {
+		mDiskDir = diskDir;
+		mMaxMemoryBytes = maxMemoryBytes;
+		mMaxDiskBytes = maxDiskBytes;
+		mPool = pool;
+		// WebP keeps alpha and is smaller, but the encoder only exists from ICS
+		mFormat = Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH ?
+				Bitmap.CompressFormat.WEBP : Bitmap.CompressFormat.JPEG;
+	}
+
+	/**
+	 * Set how thumbnails are decoded, e.g. <code>new DecodePolicy(0)</code> to halve the memory used by
+	 * JPEG thumbnails with RGB_565. Defaults to {@link DecodePolicy#DEFAULT}. The policy is part of the
+	 * cache key, so thumbnails decoded under a different policy are never handed out for this one.
+	 * @param policy The decode policy
+	 */
+	public void setDecodePolicy(DecodePolicy policy) {
+		mPolicy = policy;
+	}
+
+	/**
+	 * @return How thumbnails are decoded
+	 */
+	public DecodePolicy getDecodePolicy() {
+		return mPolicy;
+	}
+
+	private static String memoryKey(String path, int width, int height, DecodePolicy policy) {
+		return path + '|' + width + 'x' + height + '|' + policy.getKey();
+	}
+
+	/**
+	 * Get a thumbnail if it's in memory. Doesn't touch the file system so it's safe to call on the UI thread.
+	 * @param path The path of the original image
+	 * @param width The requested thumbnail width
+	 * @param height The requested thumbnail height
+	 * @return The thumbnail or null if it isn't in memory
+	 */
+	public Bitmap getFromMemory(String path, int width, int height) {
+		return getFromMemory(memoryKey(path, width, height, mPolicy));
+	}
+
+	private Bitmap getFromMemory(String key) {
+		Bitmap bitmap;
+		synchronized (mMemory) {
+			bitmap = mMemory.get(key);
+		}
+		if (bitmap != null) {
+			mMemoryHits.incrementAndGet();
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Check whether a thumbnail is in memory without counting it as a lookup or marking it as used
+	 * @param path The path of the original image
+	 * @param width The requested thumbnail width
+	 * @param height The requested thumbnail height
+	 * @return True if it's in memory
+	 */
+	public boolean isInMemory(String path, int width, int height) {
+		synchronized (mMemory) {
+			return mMemory.containsKey(memoryKey(path, width, height, mPolicy));
+		}
+	}
+
+	/**
+	 * Get a thumbnail from memory, then from disk, and failing that by decoding the original image and
+	 * adding the result to both levels. Does I/O so it shouldn't be called on the UI thread.
+	 * @param path The path of the original image
+	 * @param width The requested thumbnail width
+	 * @param height The requested thumbnail height
+	 * @return The thumbnail, which fits inside the requested size, or null if the image couldn't be decoded
+	 */
+	public Bitmap load(String path, int width, int height) {
+		// Read once so the keys and the decode agree even if the policy is changed part way through
+		final DecodePolicy policy = mPolicy;
+		final String key = memoryKey(path, width, height, policy);
+		Bitmap bitmap = getFromMemory(key);
+		if (bitmap != null) {
+			return bitmap;
+		}
+
+		// Only one thread loads a given thumbnail at a time, the rest wait and then find it in memory
+		Object lock;
+		synchronized (mLoading) {
+			lock = mLoading.get(key);
+			if (lock == null) {
+				lock = new Object();
+				mLoading.put(key, lock);
+			}
+		}
+		try {
+			synchronized (lock) {
+				bitmap = getFromMemory(key);
+				return bitmap != null ? bitmap : loadUncached(path, width, height, key, policy);
+			}
+		} finally {
+			synchronized (mLoading) {
+				if (mLoading.get(key) == lock) {
+					mLoading.remove(key);
+				}
+			}
+		}
+	}
+
+	private Bitmap loadUncached(String path, int width, int height, String key, DecodePolicy policy) {
+		Bitmap bitmap;
+		File original = new File(path);
+		if (!original.exists()) {
+			return null;
+		}
+		File thumb = new File(mDiskDir, diskKey(original, width, height, policy));
+		if (thumb.exists()) {
+			bitmap = BitmapUtil.decodeSampledBitmapFromFile(thumb.getAbsolutePath(), width, height, mPool, policy);
+			if (bitmap != null) {
+				mDiskHits.incrementAndGet();
+				// Bump it so trimming sees it as recently used
+				thumb.setLastModified(System.currentTimeMillis());
+				putInMemory(key, bitmap);
+				return bitmap;
+			}
+		}
+
+		mMisses.incrementAndGet();
+		bitmap = BitmapUtil.decodeThumbnail(path, width, height, mPool, policy);
+		if (bitmap != null) {
+			putInMemory(key, bitmap);
+			writeToDisk(thumb, bitmap);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Remove every cached thumbnail of an image from memory. Stale disk entries are never read since their
+	 * key no longer matches, and get trimmed eventually.
+	 * @param path The path of the original image
+	 */
+	public void invalidate(String path) {
+		final String prefix = path + '|';
+		synchronized (mMemory) {
+			Iterator<Map.Entry<String, Bitmap>> it = mMemory.entrySet().iterator();
+			while (it.hasNext()) {
+				Map.Entry<String, Bitmap> entry = it.next();
+				if (entry.getKey().startsWith(prefix)) {
+					mMemoryBytes -= BitmapPool.getByteCount(entry.getValue());
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drop every thumbnail held in memory. The bitmaps aren't recycled since they may still be displayed.
+	 */
+	public void evictMemory() {
+		synchronized (mMemory) {
+			mMemory.clear();
+			mMemoryBytes = 0;
+		}
+	}
+
+	/**
+	 * Delete every thumbnail in the disk cache
+	 */
+	public void clearDisk() {
+		synchronized (mDiskLock) {
+			File[] files = mDiskDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					if (!file.delete()) {
+						Twig.warning(TAG, "Couldn't delete " + file);
+					}
+				}
+			}
+			mDiskBytes = 0;
+		}
+	}
+
+	private void putInMemory(String key, Bitmap bitmap) {
+		final int size = BitmapPool.getByteCount(bitmap);
+		if (size > mMaxMemoryBytes) {
+			return;
+		}
+		synchronized (mMemory) {
+			Bitmap old = mMemory.put(key, bitmap);
+			if (old != null) {
+				mMemoryBytes -= BitmapPool.getByteCount(old);
+			}
+			mMemoryBytes += size;
+
+			Iterator<Bitmap> it = mMemory.values().iterator();
+			while (mMemoryBytes > mMaxMemoryBytes && it.hasNext()) {
+				mMemoryBytes -= BitmapPool.getByteCount(it.next());
+				it.remove();
+			}
+		}
+	}
+
+	/**
+	 * Get the file name of a thumbnail on disk
+	 */
+	private static String diskKey(File original, int width, int height, DecodePolicy policy) {
+		String key = original.getAbsolutePath() + '|' + original.lastModified() + '|' + original.length() +
+				'|' + width + 'x' + height + '|' + policy.getKey();
+		try {
+			MessageDigest digest = MessageDigest.getInstance(HASH_ALGORITHM);
+			return Hex.encodeToString(digest.digest(BitConverter.getBytes(key, BitConverter.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			// Every Android device has SHA-1 but fall back to something usable anyway
+			return Integer.toHexString(key.hashCode()) + '_' + key.length();
+		}
+	}
+
+	/**
+	 * Encode a thumbnail to disk. The encode happens outside of any lock, and the file isn't fsynced since
+	 * the cache can always be rebuilt; the atomic rename is enough to never leave a half written thumbnail.
+	 */
+	private void writeToDisk(File thumb, Bitmap bitmap) {
+		if (!mDiskDir.exists() && !mDiskDir.mkdirs()) {
+			Twig.warning(TAG, "Couldn't create cache directory " + mDiskDir);
+			return;
+		}
+		AtomicFileWriter writer = new AtomicFileWriter(thumb);
+		OutputStream out = null;
+		try {
+			out = writer.startWrite();
+			if (!bitmap.compress(mFormat, QUALITY, out)) {
+				writer.failWrite(out);
+				return;
+			}
+			writer.finishWrite(out, false);
+		} catch (IOException e) {
+			Twig.printStackTrace(e);
+			if (out != null) {
+				writer.failWrite(out);
+			}
+			return;
+		}
+
+		synchronized (mDiskLock) {
+			addToDisk(thumb);
+		}
+	}
+
+	/**
+	 * Count a new thumbnail towards the disk budget and trim if it's over. Must hold mDiskLock.
+	 */
+	private void addToDisk(File thumb) {
+		if (mDiskBytes < 0) {
+			mDiskBytes = 0;
+			File[] files = mDiskDir.listFiles();
+			if (files != null) {
+				for (File file : files) {
+					mDiskBytes += file.length();
+				}
+			}
+		} else {
+			mDiskBytes += thumb.length();
+		}
+		if (mDiskBytes > mMaxDiskBytes) {
+			trimDisk();
+		}
+	}
+
+	/**
+	 * Delete the least recently used thumbnails until the disk cache is back to 90% of its budget
+	 */
+	private void trimDisk() {
+		File[] files = mDiskDir.listFiles();
+		if (files == null) {
+			return;
+		}
+		Arrays.sort(files, new Comparator<File>() {
+			@Override
+			public int compare(File lhs, File rhs) {
+				long l = lhs.lastModified(), r = rhs.lastModified();
+				return l < r ? -1 : (l == r ? 0 : 1);
+			}
+		});
+		final long target = mMaxDiskBytes - mMaxDiskBytes / 10;
+		for (int i = 0; i < files.length && mDiskBytes > target; i++) {
+			long length = files[i].length();
+			if (files[i].delete()) {
+				mDiskBytes -= length;
+			}
+		}
+	}
+
+	/**
+	 * @return The number of lookups answered from memory
+	 */
+	public int getMemoryHitCount() {
+		return mMemoryHits.get();
+	}
+
+	/**
+	 * @return The number of lookups answered from disk
+	 */
+	public int getDiskHitCount() {
+		return mDiskHits.get();
+	}
+
+	/**
+	 * @return The number of lookups that had to decode the original image
+	 */
+	public int getMissCount() {
+		return mMisses.get();
+	}
+
+	/**
+	 * @return The fraction of {@link #load(String, int, int)} calls answered from memory, from 0 to 1
+	 */
+	public float getMemoryHitRatio() {
+		final int memoryHits = mMemoryHits.get();
+		final int total = memoryHits + mDiskHits.get() + mMisses.get();
+		return total == 0 ? 0f : (float) memoryHits / total;
+	}
+
+	/**
+	 * @return The fraction of {@link #load(String, int, int)} calls answered from either level, from 0 to 1
+	 */
+	public float getHitRatio() {
+		final int hits = mMemoryHits.get() + mDiskHits.get();
+		final int total = hits + mMisses.get();
+		return total == 0 ? 0f : (float) hits / total;
+	}
+
+	/**
+	 * @return The maximum number of bytes of bitmaps held in memory
+	 */
+	public long getMaxMemorySize() {
+		return mMaxMemoryBytes;
+	}
+
+	/**
+	 * @return The number of bytes of bitmaps currently held in memory
+	 */
+	public long getMemorySize() {
+		synchronized (mMemory) {
+			return mMemoryBytes;
+		}
+	}
+}
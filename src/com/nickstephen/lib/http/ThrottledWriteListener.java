@@ -0,0 +1,73 @@
+package com.nickstephen.lib.http;
+
+import android.os.SystemClock;
+
+/**
+ * An IWriteListener that passes progress on to another listener at most every so many bytes or
+ * milliseconds, whichever comes first. Stops listeners that update the UI from being flooded when
+ * data is copied in small chunks.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class ThrottledWriteListener implements IWriteListener {
+	private final IWriteListener mListener;
+	private final long mMinBytes;
+	private final long mMinMillis;
+	private long mLastBytes = 0;
+	private long mLastTime;
+	
+	/**
+	 * Create a new throttled listener
+	 * @param listener The listener to pass progress on to
+	 * @param minBytes The minimum number of bytes between updates (<= 0 to only throttle by time)
+	 * @param minMillis The minimum number of milliseconds between updates (<= 0 to only throttle by bytes)
+	 * If both are <= 0 every update is passed on.
+	 */
+	public ThrottledWriteListener(IWriteListener listener, long minBytes, long minMillis) {
+		mListener = listener;
+		if (minBytes <= 0 && minMillis <= 0) {
+			// No throttle at all
+			mMinBytes = 0;
+			mMinMillis = Long.MAX_VALUE;
+		} else {
+			mMinBytes = minBytes > 0 ? minBytes : Long.MAX_VALUE;
+			mMinMillis = minMillis > 0 ? minMillis : Long.MAX_VALUE;
+		}
+		mLastTime = SystemClock.uptimeMillis();
+	}
+
+	@Override
+	public void setLength(long totalBytes) {
+		mListener.setLength(totalBytes);
+	}
+
+	@Override
+	public void registerWrite(long amountOfBytesWritten, int flags) {
+		if (amountOfBytesWritten - mLastBytes >= mMinBytes) {
+			forward(amountOfBytesWritten, flags, SystemClock.uptimeMillis());
+			return;
+		}
+		final long now = SystemClock.uptimeMillis();
+		if (now - mLastTime >= mMinMillis) {
+			forward(amountOfBytesWritten, flags, now);
+		}
+	}
+	
+	/**
+	 * Pass on the final progress update if it was held back by the throttling. Call this once the
+	 * write has completed so the listener always sees the full amount.
+	 * @param amountOfBytesWritten The total number of bytes written
+	 * @param flags The flags to pass on
+	 */
+	public void finish(long amountOfBytesWritten, int flags) {
+		if (amountOfBytesWritten != mLastBytes) {
+			forward(amountOfBytesWritten, flags, SystemClock.uptimeMillis());
+		}
+	}
+	
+	private void forward(long bytes, int flags, long now) {
+		mLastBytes = bytes;
+		mLastTime = now;
+		mListener.registerWrite(bytes, flags);
+	}
+}
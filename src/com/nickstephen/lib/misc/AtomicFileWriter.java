@@ -0,0 +1,209 @@
+package com.nickstephen.lib.misc;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import com.nickstephen.lib.Twig;
+
+/**
+ * Writes a file so that it's either completely replaced or left untouched, even if the app crashes
+ * or the device loses power part way through. The new content is streamed to a uniquely named temporary
+ * file next to the target through a large buffer, fsynced, and then renamed over the target (which is
+ * atomic on the same file system). Several writes to the same target can be in progress at once; the
+ * last one finished wins.
+ * <p>
+ * The content is durable once {@link #finishWrite(OutputStream)} returns but the rename only becomes
+ * durable with the file system's next journal commit (usually within a few seconds), since a directory
+ * can't be fsynced from Java on the API levels this library supports. After a power cut in that window
+ * the target may still have its old content, but it's never partly written. Temporary files left behind
+ * by a crash are named <code>&lt;target name&gt;.tmp*.tmp</code> and can be deleted.
+ * <p>
+ * Usage: <code>OutputStream out = writer.startWrite();</code> write the content, then
+ * {@link #finishWrite(OutputStream)} on success or {@link #failWrite(OutputStream)} on failure.
+ * See {@link GroupCommitWriter} for lots of small files written from many threads.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class AtomicFileWriter {
+	private static final String TAG = "AtomicFileWriter";
+	private static final int BUFFER_SIZE = 64 * 1024;
+	
+	private final File mTarget;
+	private final long mSyncInterval;
+	
+	/**
+	 * Create a writer that only syncs once, when the write is finished
+	 * @param target The file to write
+	 */
+	public AtomicFileWriter(File target) {
+		this(target, 0);
+	}
+	
+	/**
+	 * Create a writer
+	 * @param target The file to write
+	 * @param syncInterval Sync the temporary file every time this many bytes have been written, which
+	 * stops large writes building up a lot of dirty pages for the final sync. <= 0 to only sync at the end.
+	 */
+	public AtomicFileWriter(File target, long syncInterval) {
+		mTarget = target;
+		mSyncInterval = syncInterval;
+	}
+	
+	/**
+	 * @return The file being written
+	 */
+	public File getTarget() {
+		return mTarget;
+	}
+	
+	/**
+	 * Start writing to a new temporary file
+	 * @return The stream to write the new content to. Don't close it, pass it to
+	 * {@link #finishWrite(OutputStream)} or {@link #failWrite(OutputStream)} instead.
+	 * @throws IOException If the temporary file can't be created
+	 */
+	public OutputStream startWrite() throws IOException {
+		File temp = File.createTempFile(mTarget.getName() + ".tmp", null, mTarget.getAbsoluteFile().getParentFile());
+		try {
+			return new SyncingOutputStream(new FileOutputStream(temp), temp, mSyncInterval);
+		} catch (IOException e) {
+			temp.delete();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Finish a successful write: flush, fsync and rename the new content over the target
+	 * @param out The stream from {@link #startWrite()}
+	 * @throws IOException If the content can't be synced or renamed. The target is left untouched.
+	 */
+	public void finishWrite(OutputStream out) throws IOException {
+		finishWrite(out, true);
+	}
+	
+	/**
+	 * Finish a successful write, optionally without syncing. Unsynced writes are still atomic as far as
+	 * other readers go, but after a power cut the target may be missing or empty, so only skip the sync for
+	 * data that can be rebuilt (e.g. caches) or that has already been synced with {@link #sync(OutputStream)}.
+	 * @param out The stream from {@link #startWrite()}
+	 * @param sync True to fsync the content before the rename
+	 * @throws IOException If the content can't be synced or renamed. The target is left untouched.
+	 */
+	public void finishWrite(OutputStream out, boolean sync) throws IOException {
+		SyncingOutputStream stream = (SyncingOutputStream) out;
+		if (sync) {
+			sync(out);
+		}
+		try {
+			stream.close();
+		} catch (IOException e) {
+			deleteTemp(stream);
+			throw e;
+		}
+		if (!stream.mTemp.renameTo(mTarget)) {
+			deleteTemp(stream);
+			throw new IOException("Couldn't rename " + stream.mTemp + " to " + mTarget);
+		}
+	}
+	
+	/**
+	 * Flush and fsync the content written so far without finishing the write, e.g. to sync a batch of
+	 * writes back to back before renaming any of them. The write is abandoned if the sync fails.
+	 * @param out The stream from {@link #startWrite()}
+	 * @throws IOException If the content can't be synced
+	 */
+	public void sync(OutputStream out) throws IOException {
+		try {
+			((SyncingOutputStream) out).sync();
+		} catch (IOException e) {
+			failWrite(out);
+			throw e;
+		}
+	}
+	
+	/**
+	 * Abandon a write. The temporary file is deleted and the target left untouched.
+	 * @param out The stream from {@link #startWrite()}
+	 */
+	public void failWrite(OutputStream out) {
+		try {
+			out.close();
+		} catch (IOException e) {
+			Twig.printStackTrace(e);
+		}
+		deleteTemp((SyncingOutputStream) out);
+	}
+	
+	private static void deleteTemp(SyncingOutputStream stream) {
+		if (!stream.mTemp.delete() && stream.mTemp.exists()) {
+			Twig.warning(TAG, "Couldn't delete " + stream.mTemp);
+		}
+	}
+	
+	/**
+	 * Atomically replace the target with some content
+	 * @param data The new content
+	 * @param off The index of the first byte of content in data
+	 * @param len The length of the content
+	 * @throws IOException If the write fails. The target is left untouched.
+	 */
+	public void write(byte[] data, int off, int len) throws IOException {
+		OutputStream out = startWrite();
+		try {
+			out.write(data, off, len);
+		} catch (IOException e) {
+			failWrite(out);
+			throw e;
+		}
+		finishWrite(out);
+	}
+	
+	/**
+	 * A buffered file stream that can be synced to disk, and syncs itself periodically if asked to
+	 */
+	private static class SyncingOutputStream extends BufferedOutputStream {
+		private final FileOutputStream mFileStream;
+		/**
+		 * The temporary file being written
+		 */
+		final File mTemp;
+		private final long mSyncInterval;
+		private long mUnsynced = 0;
+		
+		SyncingOutputStream(FileOutputStream out, File temp, long syncInterval) {
+			super(out, BUFFER_SIZE);
+			mFileStream = out;
+			mTemp = temp;
+			mSyncInterval = syncInterval;
+		}
+		
+		@Override
+		public synchronized void write(int b) throws IOException {
+			super.write(b);
+			written(1);
+		}
+		
+		@Override
+		public synchronized void write(byte[] b, int off, int len) throws IOException {
+			super.write(b, off, len);
+			written(len);
+		}
+		
+		private void written(int len) throws IOException {
+			mUnsynced += len;
+			if (mSyncInterval > 0 && mUnsynced >= mSyncInterval) {
+				sync();
+			}
+		}
+		
+		synchronized void sync() throws IOException {
+			flush();
+			mFileStream.getFD().sync();
+			mUnsynced = 0;
+		}
+	}
+}
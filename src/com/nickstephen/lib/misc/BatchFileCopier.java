@@ -0,0 +1,299 @@
+package com.nickstephen.lib.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.nickstephen.lib.http.IWriteListener;
+import com.nickstephen.lib.http.ThrottledWriteListener;
+
+/**
+ * Copies many files at once on a bounded pool of worker threads. Smaller files are started first so
+ * that most files finish early, and the number of copies writing to the same storage volume at once
+ * is capped (parallel writes to one SD card mostly just thrash it). A worker skips over files for a volume
+ * that's at its limit rather than waiting on it, so copies to other volumes are never held up. Progress is
+ * reported as the total across all files.
+ * <p>
+ * Add the files with {@link #add(File, File)} and then call {@link #execute()} from a background thread.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class BatchFileCopier {
+	/**
+	 * Progress of each file is added to the total at most every this many bytes...
+	 */
+	private static final long FILE_PROGRESS_BYTES = 256 * 1024;
+	/**
+	 * ...or this many milliseconds, whichever comes first
+	 */
+	private static final long FILE_PROGRESS_MILLIS = 50;
+	
+	private final int mThreads;
+	private final int mPerVolumeLimit;
+	private final IWriteListener mListener;
+	private final int mFlags;
+	private final List<Pair> mPairs = new ArrayList<Pair>();
+	/**
+	 * Files not started yet, smallest first. Also the lock for {@link #mVolumeCopies}.
+	 */
+	private final LinkedList<Pair> mPending = new LinkedList<Pair>();
+	/**
+	 * Volume key -> number of copies to it in progress
+	 */
+	private final Map<String, Integer> mVolumeCopies = new HashMap<String, Integer>();
+	private final Map<File, IOException> mFailures = Collections.synchronizedMap(new LinkedHashMap<File, IOException>());
+	private final List<FileCopier> mActive = new ArrayList<FileCopier>();
+	private ThrottledWriteListener mTotalListener;
+	private long mTotalWritten;
+	private volatile boolean mCancelled = false;
+	
+	/**
+	 * Create a new batch copier with 1 thread per core and at most 2 copies per volume
+	 */
+	public BatchFileCopier() {
+		this(Runtime.getRuntime().availableProcessors(), 2, null, 0);
+	}
+	
+	/**
+	 * Create a new batch copier
+	 * @param threads The maximum number of files to copy at once
+	 * @param perVolumeLimit The maximum number of files to copy at once to any one volume
+	 * @param listener Listener for the total progress (may be null). Given the total size of all files.
+	 * @param flags Flags passed through to the listener
+	 */
+	public BatchFileCopier(int threads, int perVolumeLimit, IWriteListener listener, int flags) {
+		mThreads = Math.max(1, threads);
+		mPerVolumeLimit = Math.max(1, perVolumeLimit);
+		mListener = listener;
+		mFlags = flags;
+	}
+	
+	/**
+	 * Queue a file to be copied
+	 * @param source The file to copy
+	 * @param destination The file to copy to
+	 * @return This copier
+	 */
+	public BatchFileCopier add(File source, File destination) {
+		mPairs.add(new Pair(source, destination));
+		return this;
+	}
+	
+	/**
+	 * Copy all of the queued files, blocking until they're all done or the batch is cancelled.
+	 * Failed copies don't stop the rest of the batch; check {@link #getFailures()} afterwards.
+	 * @return True if every file was copied, false if any failed or the batch was cancelled
+	 * @throws InterruptedException If the calling thread is interrupted while waiting
+	 */
+	public boolean execute() throws InterruptedException {
+		long totalSize = 0;
+		for (Pair pair : mPairs) {
+			pair.size = pair.source.length();
+			pair.volume = getVolumeKey(pair.destination);
+			totalSize += pair.size;
+		}
+		Collections.sort(mPairs, new Comparator<Pair>() {
+			@Override
+			public int compare(Pair lhs, Pair rhs) {
+				return lhs.size < rhs.size ? -1 : (lhs.size == rhs.size ? 0 : 1);
+			}
+		});
+		if (mListener != null) {
+			mTotalListener = new ThrottledWriteListener(mListener, 0, 100);
+			mTotalListener.setLength(totalSize);
+		}
+		
+		synchronized (mPending) {
+			mPending.clear();
+			mPending.addAll(mPairs);
+			mVolumeCopies.clear();
+		}
+		
+		final int workers = Math.min(mThreads, Math.max(1, mPairs.size()));
+		ExecutorService executor = Executors.newFixedThreadPool(workers);
+		try {
+			for (int i = 0; i < workers; i++) {
+				executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						work();
+					}
+				});
+			}
+			executor.shutdown();
+			while (!executor.awaitTermination(1, TimeUnit.SECONDS)) {
+				// Keep waiting
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		if (mTotalListener != null) {
+			synchronized (this) {
+				mTotalListener.finish(mTotalWritten, mFlags);
+			}
+		}
+		return !mCancelled && mFailures.isEmpty();
+	}
+	
+	/**
+	 * Cancel the batch. Copies in progress are stopped and their partial files deleted, and no more
+	 * copies are started. Safe to call from any thread.
+	 */
+	public void cancel() {
+		mCancelled = true;
+		synchronized (mActive) {
+			for (FileCopier copier : mActive) {
+				copier.cancel();
+			}
+		}
+	}
+	
+	/**
+	 * @return The source files that failed to copy and the reason why
+	 */
+	public Map<File, IOException> getFailures() {
+		return mFailures;
+	}
+	
+	/**
+	 * Get the key of the storage volume a file is on. Files with the same key count towards the same
+	 * concurrency limit. The default uses the first two segments of the canonical path
+	 * (e.g. "/storage/sdcard0"), which is good enough for the usual Android mount points; override
+	 * this if a more accurate mapping is available.
+	 * @param file The file to get the volume of
+	 * @return The volume key
+	 */
+	protected String getVolumeKey(File file) {
+		String path;
+		try {
+			path = file.getCanonicalPath();
+		} catch (IOException e) {
+			path = file.getAbsolutePath();
+		}
+		int end = path.indexOf(File.separatorChar, 1);
+		if (end > 0) {
+			int next = path.indexOf(File.separatorChar, end + 1);
+			end = next > 0 ? next : path.length();
+		} else {
+			end = path.length();
+		}
+		return path.substring(0, end);
+	}
+	
+	/**
+	 * Copy files until there are none left that can be started. A worker that finds every pending file
+	 * is for a volume at its limit just stops; the workers copying to those volumes pick them up as they
+	 * finish, so nothing is left behind and no thread sits blocked.
+	 */
+	private void work() {
+		while (true) {
+			Pair pair;
+			synchronized (mPending) {
+				pair = next();
+				if (pair == null) {
+					return;
+				}
+			}
+			try {
+				copy(pair);
+			} finally {
+				synchronized (mPending) {
+					mVolumeCopies.put(pair.volume, mVolumeCopies.get(pair.volume) - 1);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Take the smallest pending file whose volume is under its limit. Must hold the lock on mPending.
+	 * @return The file or null if there's none or the batch was cancelled
+	 */
+	private Pair next() {
+		if (mCancelled) {
+			return null;
+		}
+		Iterator<Pair> it = mPending.iterator();
+		while (it.hasNext()) {
+			Pair pair = it.next();
+			Integer copies = mVolumeCopies.get(pair.volume);
+			int count = copies != null ? copies : 0;
+			if (count < mPerVolumeLimit) {
+				it.remove();
+				mVolumeCopies.put(pair.volume, count + 1);
+				return pair;
+			}
+		}
+		return null;
+	}
+	
+	private void copy(Pair pair) {
+		FileCopier copier = new FileCopier(mTotalListener != null ? new FileProgress() : null, mFlags, 
+				FILE_PROGRESS_BYTES, FILE_PROGRESS_MILLIS);
+		try {
+			synchronized (mActive) {
+				if (mCancelled) {
+					return;
+				}
+				mActive.add(copier);
+			}
+			copier.copy(pair.source, pair.destination);
+		} catch (IOException e) {
+			mFailures.put(pair.source, e);
+		} catch (RuntimeException e) {
+			// e.g. a SecurityException, still a failed file rather than one that silently went missing
+			IOException wrapped = new IOException("Couldn't copy " + pair.source);
+			wrapped.initCause(e);
+			mFailures.put(pair.source, wrapped);
+		} finally {
+			synchronized (mActive) {
+				mActive.remove(copier);
+			}
+		}
+	}
+	
+	private synchronized void addProgress(long bytes) {
+		mTotalWritten += bytes;
+		mTotalListener.registerWrite(mTotalWritten, mFlags);
+	}
+	
+	/**
+	 * Turns the progress of a single file into increments of the batch total
+	 */
+	private class FileProgress implements IWriteListener {
+		private long mLast = 0;
+		
+		@Override
+		public void setLength(long totalBytes) {
+		}
+
+		@Override
+		public void registerWrite(long amountOfBytesWritten, int flags) {
+			addProgress(amountOfBytesWritten - mLast);
+			mLast = amountOfBytesWritten;
+		}
+	}
+	
+	private static class Pair {
+		final File source;
+		final File destination;
+		long size;
+		String volume;
+		
+		Pair(File src, File dst) {
+			source = src;
+			destination = dst;
+		}
+	}
+}
@@ -1,12 +1,20 @@
 package com.nickstephen.lib.misc;
 
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+
 /**
  * Java port of the C# BitConverter class. Used for converting to and from byte arrays with most other
- * data types.
+ * data types. All multi-byte values are big-endian (most significant byte first); use
+ * {@link EndianBitConverter} when a specific byte order is needed.
  * @author Nick Stephen (a.k.a saltisgood)
  *
  */
 public class BitConverter {
+	/**
+	 * The UTF-8 charset. Looked up once because Charset.forName isn't free.
+	 */
+	public static final Charset UTF_8 = Charset.forName("UTF-8");
 	
 	/**
 	 * Private constructor. Shouldn't ever be called, because you don't need an instance of this class (all static calls)
@@ -21,14 +29,14 @@ public class BitConverter {
 	public static byte[] getBytes(Boolean x) {
 		return new byte[] { (byte) (x ? 1:0)};
 	}
-
+	
 	/**
 	 * Parses a char and returns a 2-byte length byte array of its value
 	 * @param c The value to be converted
 	 * @return The corresponding 2-byte length byte array
 	 */
 	public static byte[] getBytes(char c) {
-		return new byte[] { (byte) (c & 0xFF), (byte) (c >> 8 & 0xFF) };
+		return new byte[] { (byte) (c >>> 8), (byte) c };
 	}
 	
 	/**
@@ -87,6 +95,565 @@ public class BitConverter {
 		return x.getBytes();
 	}
 	
+	/**
+	 * Parses a string and returns its value encoded in a given charset
+	 * @param x The value to be converted
+	 * @param charset The charset to encode with
+	 * @return The encoded bytes
+	 */
+	public static byte[] getBytes(String x, Charset charset) {
+		// getBytes(Charset) is API 9, the name overload works back to API 1
+		try {
+			return x.getBytes(charset.name());
+		} catch (UnsupportedEncodingException e) {
+			// Can't happen, the charset exists
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Get the number of bytes a string takes up when encoded as UTF-8 without actually encoding it.
+	 * Unpaired surrogates count as 1 byte because {@link #putUtf8(CharSequence, byte[], int)} writes them as '?'.
+	 * @param x The string to measure
+	 * @return The encoded length in bytes
+	 */
+	public static int utf8Length(CharSequence x) {
+		final int len = x.length();
+		int ret = len;
+		for (int i = 0; i < len; i++) {
+			final char c = x.charAt(i);
+			if (c < 0x80) {
+				continue;
+			} else if (c < 0x800) {
+				ret++;
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(x.charAt(i + 1))) {
+				// 2 chars -> 4 bytes
+				ret += 2;
+				i++;
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				continue;
+			} else {
+				ret += 2;
+			}
+		}
+		return ret;
+	}
+	
+	/**
+	 * Encode a string as UTF-8 straight into an existing array. Runs of ASCII are copied a char at a
+	 * time without any further branching. Unpaired surrogates are written as '?', matching
+	 * {@link #getBytes(String, Charset)}.
+	 * @param x The string to encode
+	 * @param dst The array to write into (must have at least {@link #utf8Length(CharSequence)} bytes from off)
+	 * @param off The index to start writing at
+	 * @return The index directly after the encoded string
+	 */
+	public static int putUtf8(CharSequence x, byte[] dst, int off) {
+		final int len = x.length();
+		int i = 0;
+		// ASCII fast path
+		for (char c; i < len && (c = x.charAt(i)) < 0x80; i++) {
+			dst[off++] = (byte) c;
+		}
+		for (; i < len; i++) {
+			final char c = x.charAt(i);
+			if (c < 0x80) {
+				dst[off++] = (byte) c;
+			} else if (c < 0x800) {
+				dst[off++] = (byte) (0xC0 | (c >> 6));
+				dst[off++] = (byte) (0x80 | (c & 0x3F));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				final char low;
+				if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(low = x.charAt(i + 1))) {
+					final int cp = Character.toCodePoint(c, low);
+					dst[off++] = (byte) (0xF0 | (cp >> 18));
+					dst[off++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+					dst[off++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+					dst[off++] = (byte) (0x80 | (cp & 0x3F));
+					i++;
+				} else {
+					dst[off++] = (byte) '?';
+				}
+			} else {
+				dst[off++] = (byte) (0xE0 | (c >> 12));
+				dst[off++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				dst[off++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+		return off;
+	}
+	
+	/**
+	 * Encode a string as ASCII straight into an existing array. Chars outside of ASCII are written as '?'.
+	 * @param x The string to encode
+	 * @param dst The array to write into (must have at least x.length() bytes from off)
+	 * @param off The index to start writing at
+	 * @return The index directly after the encoded string
+	 */
+	public static int putAscii(CharSequence x, byte[] dst, int off) {
+		final int len = x.length();
+		for (int i = 0; i < len; i++) {
+			final char c = x.charAt(i);
+			dst[off++] = (byte) (c < 0x80 ? c : '?');
+		}
+		return off;
+	}
+	
+	/**
+	 * Write a boolean into an existing byte array as a single byte. Doesn't allocate.
+	 * @param dst The array to write into
+	 * @param off The index to write at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putBoolean(byte[] dst, int off, boolean x) {
+		dst[off] = (byte) (x ? 1:0);
+		return off + 1;
+	}
+	
+	/**
+	 * Write a short into an existing byte array. Uses the same byte order as {@link #getBytes(short)}
+	 * but doesn't allocate.
+	 * @param dst The array to write into (must have at least 2 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putInt16(byte[] dst, int off, short x) {
+		dst[off] = (byte) (x >>> 8);
+		dst[off + 1] = (byte) x;
+		return off + 2;
+	}
+	
+	/**
+	 * Write an int into an existing byte array. Uses the same byte order as {@link #getBytes(int)}
+	 * but doesn't allocate.
+	 * @param dst The array to write into (must have at least 4 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putInt32(byte[] dst, int off, int x) {
+		dst[off] = (byte) (x >>> 24);
+		dst[off + 1] = (byte) (x >>> 16);
+		dst[off + 2] = (byte) (x >>> 8);
+		dst[off + 3] = (byte) x;
+		return off + 4;
+	}
+	
+	/**
+	 * Write a long into an existing byte array. Uses the same byte order as {@link #getBytes(long)}
+	 * but doesn't allocate.
+	 * @param dst The array to write into (must have at least 8 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putInt64(byte[] dst, int off, long x) {
+		dst[off] = (byte) (x >>> 56);
+		dst[off + 1] = (byte) (x >>> 48);
+		dst[off + 2] = (byte) (x >>> 40);
+		dst[off + 3] = (byte) (x >>> 32);
+		dst[off + 4] = (byte) (x >>> 24);
+		dst[off + 5] = (byte) (x >>> 16);
+		dst[off + 6] = (byte) (x >>> 8);
+		dst[off + 7] = (byte) x;
+		return off + 8;
+	}
+	
+	/**
+	 * Write a float into an existing byte array. Uses the same byte order as {@link #getBytes(float)}
+	 * but doesn't allocate.
+	 * @param dst The array to write into (must have at least 4 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putSingle(byte[] dst, int off, float x) {
+		return putInt32(dst, off, Float.floatToRawIntBits(x));
+	}
+	
+	/**
+	 * Write a double into an existing byte array. Uses the same byte order as {@link #getBytes(double)}
+	 * but doesn't allocate.
+	 * @param dst The array to write into (must have at least 8 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putDouble(byte[] dst, int off, double x) {
+		return putInt64(dst, off, Double.doubleToRawLongBits(x));
+	}
+	
+	/**
+	 * Convert a region of a short array into big-endian bytes in a single pass.
+	 * See {@link EndianBitConverter#toBytes(short[], int, int, byte[], int)}.
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 2 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public static int toBytes(short[] src, int off, int len, byte[] dst, int dstOff) {
+		return EndianBitConverter.BIG_ENDIAN.toBytes(src, off, len, dst, dstOff);
+	}
+	
+	/**
+	 * Convert a region of big-endian bytes into a short array in a single pass.
+	 * See {@link EndianBitConverter#fromBytes(byte[], int, short[], int, int)}.
+	 * @param src The bytes to convert (must have at least len * 2 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public static int fromBytes(byte[] src, int srcOff, short[] dst, int dstOff, int len) {
+		return EndianBitConverter.BIG_ENDIAN.fromBytes(src, srcOff, dst, dstOff, len);
+	}
+	
+	/**
+	 * Convert a region of a char array into big-endian bytes in a single pass.
+	 * See {@link EndianBitConverter#toBytes(char[], int, int, byte[], int)}.
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 2 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public static int toBytes(char[] src, int off, int len, byte[] dst, int dstOff) {
+		return EndianBitConverter.BIG_ENDIAN.toBytes(src, off, len, dst, dstOff);
+	}
+	
+	/**
+	 * Convert a region of big-endian bytes into a char array in a single pass.
+	 * See {@link EndianBitConverter#fromBytes(byte[], int, char[], int, int)}.
+	 * @param src The bytes to convert (must have at least len * 2 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public static int fromBytes(byte[] src, int srcOff, char[] dst, int dstOff, int len) {
+		return EndianBitConverter.BIG_ENDIAN.fromBytes(src, srcOff, dst, dstOff, len);
+	}
+	
+	/**
+	 * Convert a region of a int array into big-endian bytes in a single pass.
+	 * See {@link EndianBitConverter#toBytes(int[], int, int, byte[], int)}.
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 4 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public static int toBytes(int[] src, int off, int len, byte[] dst, int dstOff) {
+		return EndianBitConverter.BIG_ENDIAN.toBytes(src, off, len, dst, dstOff);
+	}
+	
+	/**
+	 * Convert a region of big-endian bytes into a int array in a single pass.
+	 * See {@link EndianBitConverter#fromBytes(byte[], int, int[], int, int)}.
+	 * @param src The bytes to convert (must have at least len * 4 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public static int fromBytes(byte[] src, int srcOff, int[] dst, int dstOff, int len) {
+		return EndianBitConverter.BIG_ENDIAN.fromBytes(src, srcOff, dst, dstOff, len);
+	}
+	
+	/**
+	 * Convert a region of a long array into big-endian bytes in a single pass.
+	 * See {@link EndianBitConverter#toBytes(long[], int, int, byte[], int)}.
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 8 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public static int toBytes(long[] src, int off, int len, byte[] dst, int dstOff) {
+		return EndianBitConverter.BIG_ENDIAN.toBytes(src, off, len, dst, dstOff);
+	}
+	
+	/**
+	 * Convert a region of big-endian bytes into a long array in a single pass.
+	 * See {@link EndianBitConverter#fromBytes(byte[], int, long[], int, int)}.
+	 * @param src The bytes to convert (must have at least len * 8 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public static int fromBytes(byte[] src, int srcOff, long[] dst, int dstOff, int len) {
+		return EndianBitConverter.BIG_ENDIAN.fromBytes(src, srcOff, dst, dstOff, len);
+	}
+	
+	/**
+	 * Convert a region of a float array into big-endian bytes in a single pass.
+	 * See {@link EndianBitConverter#toBytes(float[], int, int, byte[], int)}.
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 4 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public static int toBytes(float[] src, int off, int len, byte[] dst, int dstOff) {
+		return EndianBitConverter.BIG_ENDIAN.toBytes(src, off, len, dst, dstOff);
+	}
+	
+	/**
+	 * Convert a region of big-endian bytes into a float array in a single pass.
+	 * See {@link EndianBitConverter#fromBytes(byte[], int, float[], int, int)}.
+	 * @param src The bytes to convert (must have at least len * 4 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public static int fromBytes(byte[] src, int srcOff, float[] dst, int dstOff, int len) {
+		return EndianBitConverter.BIG_ENDIAN.fromBytes(src, srcOff, dst, dstOff, len);
+	}
+	
+	/**
+	 * Convert a region of a double array into big-endian bytes in a single pass.
+	 * See {@link EndianBitConverter#toBytes(double[], int, int, byte[], int)}.
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 8 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public static int toBytes(double[] src, int off, int len, byte[] dst, int dstOff) {
+		return EndianBitConverter.BIG_ENDIAN.toBytes(src, off, len, dst, dstOff);
+	}
+	
+	/**
+	 * Convert a region of big-endian bytes into a double array in a single pass.
+	 * See {@link EndianBitConverter#fromBytes(byte[], int, double[], int, int)}.
+	 * @param src The bytes to convert (must have at least len * 8 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public static int fromBytes(byte[] src, int srcOff, double[] dst, int dstOff, int len) {
+		return EndianBitConverter.BIG_ENDIAN.fromBytes(src, srcOff, dst, dstOff, len);
+	}
+	
+	/**
+	 * The maximum number of bytes a 32-bit varint can take up
+	 */
+	public static final int MAX_VARINT32_SIZE = 5;
+	/**
+	 * The maximum number of bytes a 64-bit varint can take up
+	 */
+	public static final int MAX_VARINT64_SIZE = 10;
+	
+	/**
+	 * Zig-zag encode an int so that values of small magnitude (positive or negative) map to
+	 * small unsigned values, e.g. 0 -> 0, -1 -> 1, 1 -> 2, -2 -> 3.
+	 * @param x The value to be encoded
+	 * @return The zig-zag encoded value
+	 */
+	public static int zigZagEncode32(int x) {
+		return (x << 1) ^ (x >> 31);
+	}
+	
+	/**
+	 * Reverse {@link #zigZagEncode32(int)}
+	 * @param x The zig-zag encoded value
+	 * @return The original value
+	 */
+	public static int zigZagDecode32(int x) {
+		return (x >>> 1) ^ -(x & 1);
+	}
+	
+	/**
+	 * Zig-zag encode a long so that values of small magnitude (positive or negative) map to
+	 * small unsigned values.
+	 * @param x The value to be encoded
+	 * @return The zig-zag encoded value
+	 */
+	public static long zigZagEncode64(long x) {
+		return (x << 1) ^ (x >> 63);
+	}
+	
+	/**
+	 * Reverse {@link #zigZagEncode64(long)}
+	 * @param x The zig-zag encoded value
+	 * @return The original value
+	 */
+	public static long zigZagDecode64(long x) {
+		return (x >>> 1) ^ -(x & 1);
+	}
+	
+	/**
+	 * Get the number of bytes an int takes up as an unsigned LEB128 varint. Negative values
+	 * always take the full 5 bytes so should be zig-zag encoded first.
+	 * @param x The value to be encoded
+	 * @return The encoded size in bytes (1 - 5)
+	 */
+	public static int varInt32Size(int x) {
+		if ((x & (0xffffffff << 7)) == 0) return 1;
+		if ((x & (0xffffffff << 14)) == 0) return 2;
+		if ((x & (0xffffffff << 21)) == 0) return 3;
+		if ((x & (0xffffffff << 28)) == 0) return 4;
+		return 5;
+	}
+	
+	/**
+	 * Get the number of bytes a long takes up as an unsigned LEB128 varint. Negative values
+	 * always take the full 10 bytes so should be zig-zag encoded first.
+	 * @param x The value to be encoded
+	 * @return The encoded size in bytes (1 - 10)
+	 */
+	public static int varInt64Size(long x) {
+		int size = 1;
+		while ((x & ~0x7FL) != 0) {
+			x >>>= 7;
+			size++;
+		}
+		return size;
+	}
+	
+	/**
+	 * Write an int as an unsigned LEB128 varint (7 bits per byte, least significant group first,
+	 * high bit set on every byte but the last).
+	 * @param dst The array to write into (must have at least {@link #varInt32Size(int)} bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putVarInt32(byte[] dst, int off, int x) {
+		while ((x & ~0x7F) != 0) {
+			dst[off++] = (byte) ((x & 0x7F) | 0x80);
+			x >>>= 7;
+		}
+		dst[off++] = (byte) x;
+		return off;
+	}
+	
+	/**
+	 * Write a long as an unsigned LEB128 varint.
+	 * @param dst The array to write into (must have at least {@link #varInt64Size(long)} bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public static int putVarInt64(byte[] dst, int off, long x) {
+		while ((x & ~0x7FL) != 0) {
+			dst[off++] = (byte) ((x & 0x7F) | 0x80);
+			x >>>= 7;
+		}
+		dst[off++] = (byte) x;
+		return off;
+	}
+	
+	/**
+	 * Encode a run of longs (typically sorted timestamps) as zig-zag varint deltas from the
+	 * previous value, starting from 0. Sorted input with small gaps usually needs 1 - 3 bytes a value.
+	 * @param src The values to encode
+	 * @param off The index of the first value in src
+	 * @param len The number of values to encode
+	 * @param dst The array to write into (at most len * {@link #MAX_VARINT64_SIZE} bytes are needed)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public static int putDeltaVarInts(long[] src, int off, int len, byte[] dst, int dstOff) {
+		long prev = 0;
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			final long x = src[i];
+			dstOff = putVarInt64(dst, dstOff, zigZagEncode64(x - prev));
+			prev = x;
+		}
+		return dstOff;
+	}
+	
+	/**
+	 * Read an unsigned LEB128 varint written by {@link #putVarInt32(byte[], int, int)}
+	 * @param src The array to read from
+	 * @param off The index to start reading at
+	 * @param value The decoded value is stored in value[0]
+	 * @return The index directly after the read value
+	 * @throws IndexOutOfBoundsException If the varint runs past the end of src
+	 * @throws IllegalStateException If the varint is longer than {@link #MAX_VARINT32_SIZE} bytes
+	 */
+	public static int readVarInt32(byte[] src, int off, int[] value) {
+		int ret = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (off >= src.length) {
+				throw new IndexOutOfBoundsException("Varint runs past the end of the buffer");
+			}
+			final byte x = src[off++];
+			ret |= (x & 0x7F) << shift;
+			if (x >= 0) {
+				value[0] = ret;
+				return off;
+			}
+		}
+		throw new IllegalStateException("Malformed varint: longer than " + MAX_VARINT32_SIZE + " bytes");
+	}
+	
+	/**
+	 * Read an unsigned LEB128 varint written by {@link #putVarInt64(byte[], int, long)}
+	 * @param src The array to read from
+	 * @param off The index to start reading at
+	 * @param value The decoded value is stored in value[0]
+	 * @return The index directly after the read value
+	 * @throws IndexOutOfBoundsException If the varint runs past the end of src
+	 * @throws IllegalStateException If the varint is longer than {@link #MAX_VARINT64_SIZE} bytes
+	 */
+	public static int readVarInt64(byte[] src, int off, long[] value) {
+		long ret = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (off >= src.length) {
+				throw new IndexOutOfBoundsException("Varint runs past the end of the buffer");
+			}
+			final byte x = src[off++];
+			ret |= (long) (x & 0x7F) << shift;
+			if (x >= 0) {
+				value[0] = ret;
+				return off;
+			}
+		}
+		throw new IllegalStateException("Malformed varint: longer than " + MAX_VARINT64_SIZE + " bytes");
+	}
+	
+	/**
+	 * Decode a run of longs written by {@link #putDeltaVarInts(long[], int, int, byte[], int)}
+	 * @param src The array to read from
+	 * @param srcOff The index in src to start reading at
+	 * @param dst The array to read the values into
+	 * @param off The index of the first value in dst
+	 * @param len The number of values to read
+	 * @return The index in src directly after the last read value
+	 */
+	public static int readDeltaVarInts(byte[] src, int srcOff, long[] dst, int off, int len) {
+		final long[] value = new long[1];
+		long prev = 0;
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			srcOff = readVarInt64(src, srcOff, value);
+			prev += zigZagDecode64(value[0]);
+			dst[i] = prev;
+		}
+		return srcOff;
+	}
+	
 	/**
 	 * Convert a variable in double bit format to a long. Should only be used
 	 * for preservation of bits for simplification purposes.
@@ -100,11 +667,11 @@ public class BitConverter {
 	/**
 	 * Convert a variable in long bit format to a double. Should only be used
 	 * for preservation of bits for simplification purposes.
-	 * @param x
-	 * @return
+	 * @param x The value to be converted
+	 * @return A variable with the same bits but different format
 	 */
 	public static double int64BitsToDouble(long x) {
-		return (double)x;
+		return Double.longBitsToDouble(x);
 	}
 	
 	/**
@@ -118,11 +685,8 @@ public class BitConverter {
 	 * @throws Exception Thrown by a null array, negative index or other out of bounds access
 	 */
 	public static boolean toBoolean(byte[] bytes, int index) throws Exception {
-		if (bytes.length < 1)
-			throw new Exception("Length of byte array must be at least 1 index");
-		else if (index + 1 > bytes.length)
-			throw new Exception("Byte array must be at least 1 byte greater than the starting index");
-		return bytes[index] != 0;
+		validateRange(bytes, index, 1);
+		return readBoolean(bytes, index);
 	}
 	
 	/**
@@ -136,11 +700,8 @@ public class BitConverter {
 	 * @throws Exception Thrown by a null array, negative index or other out of bounds access
 	 */
 	public static char toChar(byte[] bytes, int index) throws Exception {
-		if (bytes.length < 2) 
-			throw new Exception("Length of byte array must be at least 2");
-		else if (index + 2 > bytes.length)
-			throw new Exception("Byte array must be at least 2 bytes greater than the starting index");
-		return (char) ((0xFF & bytes[index++]) << 8 | (0xFF & bytes[index]));
+		validateRange(bytes, index, 2);
+		return readChar(bytes, index);
 	}
 	
 	/**
@@ -154,12 +715,9 @@ public class BitConverter {
 	 * @throws Exception Thrown by a null array, negative index or other out of bounds access
 	 */
 	public static double toDouble(byte[] bytes, int index) throws Exception { 
-		if(bytes.length < 8)
-			throw new Exception("The length of the byte array must be at least 8 bytes long.");
-		else if (index + 8 > bytes.length)
-			throw new Exception("Byte array must be at least 8 bytes greater than the starting index");
-		return Double.longBitsToDouble( toInt64(bytes, index)); 
-	} 
+		validateRange(bytes, index, 8);
+		return readDouble(bytes, index);
+	}
 	
 	/**
 	 * Convert a byte array to its short value. Arrays longer than 2 bytes can
@@ -172,12 +730,9 @@ public class BitConverter {
 	 * @throws Exception Thrown by a null array, negative index or other out of bounds access
 	 */
 	public static short toInt16(byte[] bytes, int index) throws Exception { 
-		if(bytes.length < 2) 
-			throw new Exception("The length of the byte array must be at least 2 bytes long.");
-		else if (index + 2 > bytes.length)
-			throw new Exception("Byte array must be at least 2 bytes greater than the starting index");
-		return (short)( (0xff & bytes[index]) << 8 | (0xff & bytes[index + 1]) << 0 ); 
-	} 
+		validateRange(bytes, index, 2);
+		return readInt16(bytes, index);
+	}
 	
 	/**
 	 * Convert a byte array to its int value. Arrays longer than 4 bytes can
@@ -190,13 +745,9 @@ public class BitConverter {
 	 * @throws Exception Thrown by a null array, negative index or other out of bounds access
 	 */
 	public static int toInt32(byte[] bytes, int index) throws Exception { 
-		if(bytes.length < 4) 
-			throw new Exception("The length of the byte array must be at least 4 bytes long.");
-		else if (index + 4 > bytes.length)
-			throw new Exception("Byte array must be at least 4 bytes greater than the starting index");
-		return (int)( (int)(0xff & bytes[index]) << 56 | (int)(0xff & bytes[index + 1]) << 48 | (int)(0xff & bytes[index + 2]) << 40 | 
-				(int)(0xff & bytes[index + 3]) << 32 ); 
-	} 
+		validateRange(bytes, index, 4);
+		return readInt32(bytes, index);
+	}
 	
 	/**
 	 * Convert a byte array to its long value. Arrays longer than 8 bytes can
@@ -209,14 +760,9 @@ public class BitConverter {
 	 * @throws Exception Thrown by a null array, negative index or other out of bounds access
 	 */
 	public static long toInt64(byte[] bytes, int index) throws Exception { 
-		if(bytes.length < 8) 
-			throw new Exception("The length of the byte array must be at least 8 bytes long.");
-		else if (index + 8 > bytes.length)
-			throw new Exception("Byte array must be at least 8 bytes greater than the starting index");
-		return (long)((long)(0xff & bytes[index]) << 56 | (long)(0xff & bytes[index + 1]) << 48 | (long)(0xff & bytes[index + 2]) << 40 | 
-				(long)(0xff & bytes[index + 3]) << 32 | (long)(0xff & bytes[index + 4]) << 24 | (long)(0xff & bytes[index + 5]) << 16 | 
-				(long)(0xff & bytes[index + 6]) << 8 | (long)(0xff & bytes[index + 7]) << 0 ); 
-	} 
+		validateRange(bytes, index, 8);
+		return readInt64(bytes, index);
+	}
 	
 	/**
 	 * Convert a byte array to its float value. Arrays longer than 4 bytes can
@@ -229,12 +775,107 @@ public class BitConverter {
 	 * @throws Exception Thrown by a null array, negative index or other out of bounds access
 	 */
 	public static float toSingle(byte[] bytes, int index) throws Exception { 
-		if(bytes.length < 4) 
-			throw new Exception("The length of the byte array must be at least 4 bytes long.");
-		else if (index + 4 > bytes.length)
-			throw new Exception("Byte array must be at least 4 bytes greater than the starting index");
-		return Float.intBitsToFloat( toInt32(bytes, index)); 
-	} 
+		validateRange(bytes, index, 4);
+		return readSingle(bytes, index);
+	}
+	
+	/**
+	 * Check that a record of a given length lies entirely inside a byte array. Call this once
+	 * for a whole record and then use the unchecked read methods (e.g. {@link #readInt32(byte[], int)})
+	 * to decode each field.
+	 * @param bytes The array that will be read from
+	 * @param index The starting index of the record
+	 * @param length The length of the record in bytes
+	 * @throws Exception Thrown by a null array, negative index or if the record runs past the end of the array
+	 */
+	public static void validateRange(byte[] bytes, int index, int length) throws Exception {
+		if (bytes == null)
+			throw new Exception("The byte array must not be null");
+		else if (index < 0 || length < 0)
+			throw new Exception("The starting index and length must not be negative");
+		else if (bytes.length - index < length)
+			throw new Exception("Byte array must be at least " + length + " bytes greater than the starting index");
+	}
+	
+	/**
+	 * Read a boolean from a byte array without any bounds checking. The caller is expected
+	 * to have validated the range already, e.g. with {@link #validateRange(byte[], int, int)}.
+	 * @param bytes The array to read from
+	 * @param index The index of the value
+	 * @return The corresponding boolean value
+	 */
+	public static boolean readBoolean(byte[] bytes, int index) {
+		return bytes[index] != 0;
+	}
+	
+	/**
+	 * Read a char from a byte array without any bounds checking. The caller is expected
+	 * to have validated the range already, e.g. with {@link #validateRange(byte[], int, int)}.
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding char value
+	 */
+	public static char readChar(byte[] bytes, int index) {
+		return (char) ((0xff & bytes[index]) << 8 | (0xff & bytes[index + 1]));
+	}
+	
+	/**
+	 * Read a short from a byte array without any bounds checking. The caller is expected
+	 * to have validated the range already, e.g. with {@link #validateRange(byte[], int, int)}.
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding short value
+	 */
+	public static short readInt16(byte[] bytes, int index) {
+		return (short) ((0xff & bytes[index]) << 8 | (0xff & bytes[index + 1]));
+	}
+	
+	/**
+	 * Read an int from a byte array without any bounds checking. The caller is expected
+	 * to have validated the range already, e.g. with {@link #validateRange(byte[], int, int)}.
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding int value
+	 */
+	public static int readInt32(byte[] bytes, int index) {
+		return (0xff & bytes[index]) << 24 | (0xff & bytes[index + 1]) << 16 | 
+				(0xff & bytes[index + 2]) << 8 | (0xff & bytes[index + 3]);
+	}
+	
+	/**
+	 * Read a long from a byte array without any bounds checking. The caller is expected
+	 * to have validated the range already, e.g. with {@link #validateRange(byte[], int, int)}.
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding long value
+	 */
+	public static long readInt64(byte[] bytes, int index) {
+		return (long)(0xff & bytes[index]) << 56 | (long)(0xff & bytes[index + 1]) << 48 | (long)(0xff & bytes[index + 2]) << 40 | 
+				(long)(0xff & bytes[index + 3]) << 32 | (long)(0xff & bytes[index + 4]) << 24 | (long)(0xff & bytes[index + 5]) << 16 | 
+				(long)(0xff & bytes[index + 6]) << 8 | (long)(0xff & bytes[index + 7]);
+	}
+	
+	/**
+	 * Read a float from a byte array without any bounds checking. The caller is expected
+	 * to have validated the range already, e.g. with {@link #validateRange(byte[], int, int)}.
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding float value
+	 */
+	public static float readSingle(byte[] bytes, int index) {
+		return Float.intBitsToFloat(readInt32(bytes, index));
+	}
+	
+	/**
+	 * Read a double from a byte array without any bounds checking. The caller is expected
+	 * to have validated the range already, e.g. with {@link #validateRange(byte[], int, int)}.
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding double value
+	 */
+	public static double readDouble(byte[] bytes, int index) {
+		return Double.longBitsToDouble(readInt64(bytes, index));
+	}
 	
 	/**
 	 * Convert a byte array to its string value. Arrays shorter than 1 byte
@@ -249,4 +890,60 @@ public class BitConverter {
 			throw new Exception("The byte array must have at least 1 byte."); 
 		return new String(bytes); 
 	}
+	
+	/**
+	 * Decode a region of a byte array in a given charset without copying the region out first
+	 * @param bytes The array to decode from
+	 * @param index The starting index of the string
+	 * @param length The length of the string in bytes
+	 * @param charset The charset the string is encoded in
+	 * @return The decoded string
+	 */
+	public static String toString(byte[] bytes, int index, int length, Charset charset) {
+		// new String(..., Charset) is API 9, the name overload works back to API 1
+		try {
+			return new String(bytes, index, length, charset.name());
+		} catch (UnsupportedEncodingException e) {
+			// Can't happen, the charset exists
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Decode a region of a byte array as UTF-8. ASCII only input (the common case) is decoded without
+	 * going through a CharsetDecoder; anything else falls back to {@link #toString(byte[], int, int, Charset)}.
+	 * @param bytes The array to decode from
+	 * @param index The starting index of the string
+	 * @param length The length of the string in bytes
+	 * @return The decoded string
+	 */
+	public static String readUtf8(byte[] bytes, int index, int length) {
+		final int end = index + length;
+		for (int i = index; i < end; i++) {
+			if (bytes[i] < 0) {
+				return toString(bytes, index, length, UTF_8);
+			}
+		}
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			chars[i] = (char) bytes[index + i];
+		}
+		return new String(chars);
+	}
+	
+	/**
+	 * Decode a region of a byte array as ASCII. Bytes outside of ASCII are decoded as '\uFFFD'.
+	 * @param bytes The array to decode from
+	 * @param index The starting index of the string
+	 * @param length The length of the string in bytes
+	 * @return The decoded string
+	 */
+	public static String readAscii(byte[] bytes, int index, int length) {
+		final char[] chars = new char[length];
+		for (int i = 0; i < length; i++) {
+			final byte b = bytes[index + i];
+			chars[i] = b < 0 ? '\uFFFD' : (char) b;
+		}
+		return new String(chars);
+	}
 }
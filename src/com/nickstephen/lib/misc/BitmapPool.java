@@ -0,0 +1,256 @@
+package com.nickstephen.lib.misc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.TreeMap;
+
+import android.annotation.TargetApi;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+
+/**
+ * A pool of unused mutable bitmaps that decodes can reuse through {@link BitmapFactory.Options#inBitmap}
+ * instead of allocating new pixel memory, which cuts down on GC pauses when lots of similar bitmaps are
+ * decoded (e.g. thumbnails in a scrolling grid). Bitmaps are bucketed by byte size and evicted least
+ * recently used first once the pool goes over its byte budget, where a bitmap counts as used when it's
+ * given back or when another bitmap is taken from its bucket. Sizes that keep getting reused stay pooled
+ * and sizes nothing asks for any more go first.
+ * <p>
+ * Before KitKat the platform only reuses a bitmap of exactly the decoded size with an inSampleSize of 1,
+ * from KitKat on any big enough bitmap can be reused. Thread safe.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class BitmapPool {
+	/**
+	 * Build.VERSION_CODES.KITKAT, which isn't in the SDK this library compiles against
+	 */
+	private static final int KITKAT = 19;
+	/**
+	 * Don't reuse a bitmap more than this many times bigger than needed (KitKat+ only)
+	 */
+	private static final int MAX_OVERSIZE = 4;
+	
+	private final long mMaxBytes;
+	private long mBytes = 0;
+	/**
+	 * Byte size -> bitmaps of that size
+	 */
+	private final TreeMap<Integer, LinkedList<Bitmap>> mBuckets = new TreeMap<Integer, LinkedList<Bitmap>>();
+	/**
+	 * Every pooled bitmap in access order, used as an ordered set for LRU eviction
+	 */
+	private final LinkedHashMap<Bitmap, Boolean> mLru = new LinkedHashMap<Bitmap, Boolean>(16, 0.75f, true);
+	private int mHits = 0;
+	private int mMisses = 0;
+	private int mEvictions = 0;
+	
+	/**
+	 * Create a new pool
+	 * @param maxBytes The maximum number of bytes of bitmaps to keep
+	 */
+	public BitmapPool(long maxBytes) {
+		mMaxBytes = maxBytes;
+	}
+	
+	/**
+	 * Get the number of bytes a bitmap uses
+	 * @param bitmap The bitmap
+	 * @return The size of its pixel data in bytes
+	 */
+	public static int getByteCount(Bitmap bitmap) {
+		return bitmap.getRowBytes() * bitmap.getHeight();
+	}
+	
+	static int bytesPerPixel(Bitmap.Config config) {
+		if (config == Bitmap.Config.ALPHA_8) {
+			return 1;
+		} else if (config == Bitmap.Config.RGB_565 || config == Bitmap.Config.ARGB_4444) {
+			return 2;
+		}
+		return 4;
+	}
+	
+	/**
+	 * Can pooled bitmaps be reused for decodes that subsample?
+	 */
+	public static boolean canReuseForSampledDecode() {
+		return Build.VERSION.SDK_INT >= KITKAT;
+	}
+	
+	/**
+	 * Take a bitmap of exactly a given size and config out of the pool, e.g. to draw into
+	 * @param width The width needed
+	 * @param height The height needed
+	 * @param config The config needed
+	 * @return A bitmap with undefined content, or null if the pool doesn't have one
+	 */
+	public synchronized Bitmap get(int width, int height, Bitmap.Config config) {
+		LinkedList<Bitmap> bucket = mBuckets.get(width * height * bytesPerPixel(config));
+		if (bucket != null) {
+			for (Iterator<Bitmap> it = bucket.iterator(); it.hasNext(); ) {
+				Bitmap bitmap = it.next();
+				if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+					it.remove();
+					removed(bitmap, bucket);
+					mHits++;
+					return bitmap;
+				}
+			}
+		}
+		mMisses++;
+		return null;
+	}
+	
+	/**
+	 * Set up decode options to reuse a pooled bitmap if there's a suitable one. Call this after the bounds
+	 * have been decoded and inSampleSize, inPreferredConfig and any density scaling have been set.
+	 * @param options The options for the real decode
+	 * @return True if a pooled bitmap was set as inBitmap
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	public boolean applyTo(BitmapFactory.Options options) {
+		if (Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB) {
+			return false;
+		}
+		options.inMutable = true;
+		final int sample = Math.max(1, options.inSampleSize);
+		Bitmap.Config config = options.inPreferredConfig != null ? options.inPreferredConfig : Bitmap.Config.ARGB_8888;
+		final boolean densityScaled = options.inScaled && options.inDensity > 0 && options.inTargetDensity > 0 
+				&& options.inDensity != options.inTargetDensity;
+		Bitmap candidate;
+		if (Build.VERSION.SDK_INT >= KITKAT) {
+			// Round up since decoders differ on how they round sampled sizes
+			int width = (options.outWidth + sample - 1) / sample;
+			int height = (options.outHeight + sample - 1) / sample;
+			if (densityScaled) {
+				width = (int) Math.ceil((double) width * options.inTargetDensity / options.inDensity);
+				height = (int) Math.ceil((double) height * options.inTargetDensity / options.inDensity);
+			}
+			candidate = getAtLeast(width * height * bytesPerPixel(config));
+		} else if (sample == 1 && !densityScaled) {
+			candidate = get(options.outWidth, options.outHeight, config);
+		} else {
+			candidate = null;
+		}
+		options.inBitmap = candidate;
+		return candidate != null;
+	}
+	
+	private synchronized Bitmap getAtLeast(int bytes) {
+		Map.Entry<Integer, LinkedList<Bitmap>> entry = mBuckets.ceilingEntry(bytes);
+		if (entry != null && entry.getKey() <= (long) bytes * MAX_OVERSIZE) {
+			Bitmap bitmap = entry.getValue().removeFirst();
+			removed(bitmap, entry.getValue());
+			mHits++;
+			return bitmap;
+		}
+		mMisses++;
+		return null;
+	}
+	
+	/**
+	 * Account for a bitmap taken out of its bucket. The rest of the bucket counts as used, since their
+	 * size was just asked for.
+	 */
+	private void removed(Bitmap bitmap, LinkedList<Bitmap> bucket) {
+		if (bucket.isEmpty()) {
+			mBuckets.remove(getByteCount(bitmap));
+		} else {
+			for (Bitmap sibling : bucket) {
+				mLru.get(sibling);
+			}
+		}
+		mLru.remove(bitmap);
+		mBytes -= getByteCount(bitmap);
+	}
+	
+	/**
+	 * Give a bitmap that's no longer used to the pool. The caller mustn't use or recycle it afterwards.
+	 * Bitmaps that can't be reused (immutable or too big) are recycled straight away.
+	 * @param bitmap The bitmap (may be null)
+	 */
+	public void put(Bitmap bitmap) {
+		if (bitmap == null || bitmap.isRecycled()) {
+			return;
+		}
+		final int bytes = getByteCount(bitmap);
+		if (!bitmap.isMutable() || Build.VERSION.SDK_INT < Build.VERSION_CODES.HONEYCOMB || bytes > mMaxBytes) {
+			bitmap.recycle();
+			return;
+		}
+		synchronized (this) {
+			if (mLru.containsKey(bitmap)) {
+				return;
+			}
+			LinkedList<Bitmap> bucket = mBuckets.get(bytes);
+			if (bucket == null) {
+				bucket = new LinkedList<Bitmap>();
+				mBuckets.put(bytes, bucket);
+			}
+			bucket.addLast(bitmap);
+			mLru.put(bitmap, Boolean.TRUE);
+			mBytes += bytes;
+			trimTo(mMaxBytes);
+		}
+	}
+	
+	private void trimTo(long maxBytes) {
+		Iterator<Bitmap> it = mLru.keySet().iterator();
+		while (mBytes > maxBytes && it.hasNext()) {
+			Bitmap eldest = it.next();
+			it.remove();
+			final int bytes = getByteCount(eldest);
+			LinkedList<Bitmap> bucket = mBuckets.get(bytes);
+			bucket.remove(eldest);
+			if (bucket.isEmpty()) {
+				mBuckets.remove(bytes);
+			}
+			mBytes -= bytes;
+			mEvictions++;
+			eldest.recycle();
+		}
+	}
+	
+	/**
+	 * Recycle every bitmap in the pool, e.g. when the app is low on memory
+	 */
+	public synchronized void evictAll() {
+		trimTo(0);
+	}
+	
+	/**
+	 * @return The number of bytes of bitmaps currently pooled
+	 */
+	public synchronized long getSize() {
+		return mBytes;
+	}
+	
+	public long getMaxSize() {
+		return mMaxBytes;
+	}
+	
+	/**
+	 * @return The number of requests that were given a pooled bitmap
+	 */
+	public synchronized int getHitCount() {
+		return mHits;
+	}
+	
+	/**
+	 * @return The number of requests the pool couldn't satisfy
+	 */
+	public synchronized int getMissCount() {
+		return mMisses;
+	}
+	
+	/**
+	 * @return The number of bitmaps recycled to keep the pool under budget
+	 */
+	public synchronized int getEvictionCount() {
+		return mEvictions;
+	}
+}
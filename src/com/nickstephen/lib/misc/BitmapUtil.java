@@ -1,46 +1,128 @@
 package com.nickstephen.lib.misc;
 
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
 import java.io.IOException;
 
+import android.annotation.TargetApi;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Canvas;
+import android.graphics.Color;
 import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.graphics.Rect;
 import android.media.ExifInterface;
+import android.os.Build;
 
 public class BitmapUtil {
+	/**
+	 * How far an embedded EXIF thumbnail's aspect ratio may be from the image's before it's assumed to be
+	 * letterboxed or cropped, as a fraction of the image's
+	 */
+	private static final float MAX_THUMBNAIL_ASPECT_ERROR = 0.05f;
+	/**
+	 * The inSampleSize of the quick preview stage of {@link #decodeProgressive}
+	 */
+	private static final int PREVIEW_SAMPLE_SIZE = 16;
+	
+	/**
+	 * Callbacks for {@link BitmapUtil#decodeProgressive}, made on the decoding thread
+	 */
+	public interface PreviewCallback {
+		/**
+		 * Called with a low resolution preview, the right way up, before the full decode starts
+		 * @param preview The preview. It may come from the decode's pool, so give it back once it's been
+		 * replaced by the full bitmap.
+		 */
+		public void onPreview(Bitmap preview);
+		
+		/**
+		 * @return True to stop after the preview without decoding the full image
+		 */
+		public boolean isCancelled();
+	}
+	
 	private BitmapUtil() {}
 	
+	/**
+	 * Calculate the sample size to decode an image with so that it's at least the requested size in both
+	 * dimensions. This is always a power of two, since decoders round other sample sizes down anyway.
+	 * @param options Options filled in by a bounds only decode
+	 * @param reqWidth The requested width
+	 * @param reqHeight The requested height
+	 * @return The sample size (1, 2, 4, ...)
+	 * @see #calculatePowerOfTwoSampleSize(int, int, int, int)
+	 */
 	public static int calculateInSampleSize(BitmapFactory.Options options, int reqWidth, int reqHeight) {
-		final int height = options.outHeight;
-	    final int width = options.outWidth;
-	    int inSampleSize = 1;
-
-	    if (height > reqHeight || width > reqWidth) {
-
-	        // Calculate ratios of height and width to requested height and width
-	        final int heightRatio = Math.round((float) height / (float) reqHeight);
-	        final int widthRatio = Math.round((float) width / (float) reqWidth);
-
-	        // Choose the smallest ratio as inSampleSize value, this will guarantee
-	        // a final image with both dimensions larger than or equal to the
-	        // requested height and width.
-	        inSampleSize = heightRatio < widthRatio ? heightRatio : widthRatio;
-	    }
-
-	    return inSampleSize;
+		return calculatePowerOfTwoSampleSize(options.outWidth, options.outHeight, reqWidth, reqHeight);
 	}
 	
+	/**
+	 * Find the largest power of two sample size that still decodes an image to at least the requested
+	 * size in both dimensions. Decoders round non power of two sample sizes down anyway, so this is the
+	 * cheapest decode that can then be scaled down to exactly the requested size.
+	 * @param width The full width of the image
+	 * @param height The full height of the image
+	 * @param reqWidth The width the image will be scaled to
+	 * @param reqHeight The height the image will be scaled to
+	 * @return The sample size (1, 2, 4, ...)
+	 */
+	public static int calculatePowerOfTwoSampleSize(int width, int height, int reqWidth, int reqHeight) {
+		int inSampleSize = 1;
+		if (reqWidth <= 0 || reqHeight <= 0) {
+			return inSampleSize;
+		}
+		while (width / (inSampleSize * 2) >= reqWidth && height / (inSampleSize * 2) >= reqHeight) {
+			inSampleSize *= 2;
+		}
+		return inSampleSize;
+	}
+	
+	/**
+	 * Decode an image file to an exact size. Only the bounds are read first so the image can be
+	 * subsampled while decoding, and the final exact scale is done on the already small bitmap, so the
+	 * full resolution image is never held in memory.
+	 * @param filePath The image file
+	 * @param reqWidth The width to scale to
+	 * @param reqHeight The height to scale to
+	 * @param maintainAspectRatio True to shrink one of the requested dimensions to keep the image's aspect ratio
+	 * @return The decoded bitmap or null if the file couldn't be decoded
+	 */
 	public static Bitmap decodeBitmapFromFileToSize(String filePath, int reqWidth, int reqHeight, boolean maintainAspectRatio) {
-		Bitmap original = BitmapFactory.decodeFile(filePath);
-		if (original == null) {
+		return decodeBitmapFromFileToSize(filePath, reqWidth, reqHeight, maintainAspectRatio, null, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decodeBitmapFromFileToSize(String, int, int, boolean)} but reuses bitmaps from a pool
+	 * where possible, and gives the intermediate bitmap back to the pool.
+	 * @param pool The pool to reuse bitmaps from (may be null)
+	 */
+	public static Bitmap decodeBitmapFromFileToSize(String filePath, int reqWidth, int reqHeight, boolean maintainAspectRatio, BitmapPool pool) {
+		return decodeBitmapFromFileToSize(filePath, reqWidth, reqHeight, maintainAspectRatio, pool, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decodeBitmapFromFileToSize(String, int, int, boolean, BitmapPool)} but configured by a
+	 * decode policy. The requested size is shrunk to fit the policy's byte budget.
+	 * @param policy How to configure the decode
+	 */
+	public static Bitmap decodeBitmapFromFileToSize(String filePath, int reqWidth, int reqHeight, boolean maintainAspectRatio, 
+			BitmapPool pool, DecodePolicy policy) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(filePath, options);
+		final int oriWidth = options.outWidth, oriHeight = options.outHeight;
+		if (oriWidth <= 0 || oriHeight <= 0) {
 			return null;
 		}
-		if (original.getWidth() == reqWidth || original.getHeight() == reqHeight) {
-			return original;
+		if (oriWidth == reqWidth || oriHeight == reqHeight) {
+			policy.apply(options, oriWidth, oriHeight, oriWidth, oriHeight);
+			return decodeFile(filePath, options, pool);
 		}
 		
 		if (maintainAspectRatio) {
-			int oriWidth = original.getWidth(), oriHeight = original.getHeight();
 			if (oriWidth >= oriHeight) {
 				float aRatio = (float)oriHeight / (float)oriWidth;
 				reqHeight = (int)(reqWidth * aRatio);
@@ -50,43 +132,558 @@ public class BitmapUtil {
 			}
 		}
 		
-		Bitmap scaled = Bitmap.createScaledBitmap(original, reqWidth, reqHeight, false);
+		final float budgetScale = policy.getBudgetScale(reqWidth, reqHeight, policy.getConfig(options.outMimeType));
+		reqWidth = Math.max(1, (int) (reqWidth * budgetScale));
+		reqHeight = Math.max(1, (int) (reqHeight * budgetScale));
+		policy.apply(options, oriWidth, oriHeight, reqWidth, reqHeight);
+		return scaleTo(decodeFile(filePath, options, pool), reqWidth, reqHeight, pool);
+	}
+	
+	/**
+	 * Decode part of an image file to an exact size, e.g. for a crop. Uses BitmapRegionDecoder where
+	 * available so only the region is decoded (subsampled); older versions decode the whole image
+	 * subsampled and crop it.
+	 * @param filePath The image file
+	 * @param region The part of the image to decode, in full resolution pixels. Clipped to the image.
+	 * @param reqWidth The width to scale the region to
+	 * @param reqHeight The height to scale the region to
+	 * @return The decoded bitmap or null if the file couldn't be decoded
+	 */
+	public static Bitmap decodeRegionFromFileToSize(String filePath, Rect region, int reqWidth, int reqHeight) {
+		return decodeRegionFromFileToSize(filePath, region, reqWidth, reqHeight, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decodeRegionFromFileToSize(String, Rect, int, int)} but configured by a decode policy.
+	 * The requested size is shrunk to fit the policy's byte budget.
+	 * @param policy How to configure the decode
+	 */
+	public static Bitmap decodeRegionFromFileToSize(String filePath, Rect region, int reqWidth, int reqHeight, DecodePolicy policy) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeFile(filePath, options);
+		Rect clipped = new Rect(region);
+		if (options.outWidth <= 0 || options.outHeight <= 0 || !clipped.intersect(0, 0, options.outWidth, options.outHeight)) {
+			return null;
+		}
+		final float budgetScale = policy.getBudgetScale(reqWidth, reqHeight, policy.getConfig(options.outMimeType));
+		reqWidth = Math.max(1, (int) (reqWidth * budgetScale));
+		reqHeight = Math.max(1, (int) (reqHeight * budgetScale));
+		policy.apply(options, clipped.width(), clipped.height(), reqWidth, reqHeight);
+		// The crop below works in sampled pixels, so no density scaling
+		options.inDensity = 0;
+		options.inTargetDensity = 0;
+		
+		Bitmap bitmap;
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD_MR1) {
+			bitmap = decodeRegion(filePath, clipped, options);
+		} else {
+			Bitmap full = BitmapFactory.decodeFile(filePath, options);
+			if (full == null) {
+				return null;
+			}
+			final int sample = options.inSampleSize;
+			bitmap = Bitmap.createBitmap(full, clipped.left / sample, clipped.top / sample, 
+					Math.max(1, Math.min(full.getWidth() - clipped.left / sample, clipped.width() / sample)), 
+					Math.max(1, Math.min(full.getHeight() - clipped.top / sample, clipped.height() / sample)), null, false);
+			if (bitmap != full) {
+				full.recycle();
+			}
+		}
+		return scaleTo(bitmap, reqWidth, reqHeight, null);
+	}
+	
+	@TargetApi(Build.VERSION_CODES.GINGERBREAD_MR1)
+	private static Bitmap decodeRegion(String filePath, Rect region, BitmapFactory.Options options) {
+		BitmapRegionDecoder decoder;
+		try {
+			decoder = BitmapRegionDecoder.newInstance(filePath, false);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return null;
+		}
+		try {
+			return decoder.decodeRegion(region, options);
+		} finally {
+			decoder.recycle();
+		}
+	}
+	
+	/**
+	 * Scale a bitmap to an exact size, giving up the original if a new bitmap was needed
+	 * @param bitmap The bitmap to scale (may be null)
+	 * @param width The width to scale to
+	 * @param height The height to scale to
+	 * @param pool Pool to draw the result into a reused bitmap from and to give the original back to (may be null)
+	 * @return The scaled bitmap, or the original if it's already the right size or couldn't be scaled
+	 */
+	private static Bitmap scaleTo(Bitmap bitmap, int width, int height, BitmapPool pool) {
+		if (bitmap == null || width <= 0 || height <= 0 || (bitmap.getWidth() == width && bitmap.getHeight() == height)) {
+			return bitmap;
+		}
+		Bitmap scaled = null;
+		if (pool != null) {
+			scaled = pool.get(width, height, bitmap.getConfig() != null ? bitmap.getConfig() : Bitmap.Config.ARGB_8888);
+			if (scaled != null) {
+				scaled.eraseColor(Color.TRANSPARENT);
+				new Canvas(scaled).drawBitmap(bitmap, null, new Rect(0, 0, width, height), new Paint(Paint.FILTER_BITMAP_FLAG));
+			}
+		}
 		if (scaled == null) {
-			return original;
+			scaled = Bitmap.createScaledBitmap(bitmap, width, height, false);
 		}
-		if (scaled != original) {
-			original.recycle();
-			original = null;
+		if (scaled == null) {
+			return bitmap;
+		}
+		if (scaled != bitmap) {
+			release(bitmap, pool);
 		}
 		return scaled;
 	}
 	
+	/**
+	 * Give up a bitmap that's no longer needed, to the pool if there is one or else by recycling it
+	 */
+	private static void release(Bitmap bitmap, BitmapPool pool) {
+		if (pool != null) {
+			pool.put(bitmap);
+		} else {
+			bitmap.recycle();
+		}
+	}
+	
+	/**
+	 * Decode a file, reusing a pooled bitmap if there's a suitable one
+	 * @param filePath The image file
+	 * @param options Options with the bounds already decoded and inSampleSize set
+	 * @param pool The pool to reuse from (may be null)
+	 * @return The decoded bitmap or null if the file couldn't be decoded
+	 */
+	private static Bitmap decodeFile(String filePath, BitmapFactory.Options options, BitmapPool pool) {
+		if (pool != null && pool.applyTo(options)) {
+			// decodeFile swallows the decoder's complaint about a candidate it won't take and returns null
+			Bitmap bitmap = BitmapFactory.decodeFile(filePath, options);
+			if (bitmap != null) {
+				return bitmap;
+			}
+			discardCandidate(options);
+		}
+		return BitmapFactory.decodeFile(filePath, options);
+	}
+	
+	/**
+	 * Decode an open file from the start, reusing a pooled bitmap if there's a suitable one
+	 * @see #decodeFile(String, BitmapFactory.Options, BitmapPool)
+	 * @param in The open file
+	 * @throws IOException If the file can't be rewound
+	 */
+	private static Bitmap decodeFileDescriptor(FileInputStream in, BitmapFactory.Options options, BitmapPool pool) 
+			throws IOException {
+		final FileDescriptor fd = in.getFD();
+		if (pool != null && pool.applyTo(options)) {
+			Bitmap bitmap = null;
+			try {
+				in.getChannel().position(0);
+				bitmap = BitmapFactory.decodeFileDescriptor(fd, null, options);
+			} catch (IllegalArgumentException e) {
+				// Thrown instead of returning null on some versions
+			}
+			if (bitmap != null) {
+				return bitmap;
+			}
+			discardCandidate(options);
+		}
+		in.getChannel().position(0);
+		return BitmapFactory.decodeFileDescriptor(fd, null, options);
+	}
+	
+	/**
+	 * Throw away the pooled bitmap a decode failed with so the decode can be retried without it. It
+	 * isn't put back since it'll most likely be turned down again. Only called after
+	 * {@link BitmapPool#applyTo(BitmapFactory.Options)} has set one, which it only does on Honeycomb and up.
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static void discardCandidate(BitmapFactory.Options options) {
+		if (options.inBitmap != null) {
+			options.inBitmap.recycle();
+			options.inBitmap = null;
+		}
+	}
+	
+	/**
+	 * Stop the next decode reusing the bitmap the last one was decoded into. inBitmap doesn't exist
+	 * before Honeycomb, and nothing is reused there anyway.
+	 */
+	@TargetApi(Build.VERSION_CODES.HONEYCOMB)
+	private static void clearCandidate(BitmapFactory.Options options) {
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+			options.inBitmap = null;
+		}
+	}
+	
 	public static Bitmap decodeSampledBitmapFromFile(String filePath, int reqWidth, int reqHeight) {
+		return decodeSampledBitmapFromFile(filePath, reqWidth, reqHeight, null, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Decode a subsampled bitmap, reusing a bitmap from a pool where possible
+	 * @param filePath The image file
+	 * @param reqWidth The requested width
+	 * @param reqHeight The requested height
+	 * @param pool The pool to reuse bitmaps from (may be null)
+	 * @return The decoded bitmap or null if the file couldn't be decoded
+	 */
+	public static Bitmap decodeSampledBitmapFromFile(String filePath, int reqWidth, int reqHeight, BitmapPool pool) {
+		return decodeSampledBitmapFromFile(filePath, reqWidth, reqHeight, pool, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decodeSampledBitmapFromFile(String, int, int, BitmapPool)} but configured by a decode
+	 * policy
+	 * @param policy How to configure the decode
+	 */
+	public static Bitmap decodeSampledBitmapFromFile(String filePath, int reqWidth, int reqHeight, BitmapPool pool, DecodePolicy policy) {
 		BitmapFactory.Options options = new BitmapFactory.Options();
 		options.inJustDecodeBounds = true;
 		BitmapFactory.decodeFile(filePath, options);
 		
-		options.inSampleSize = calculateInSampleSize(options, reqWidth, reqHeight);
-		options.inJustDecodeBounds = false;
-		
-		return BitmapFactory.decodeFile(filePath, options);
+		return decodeSampledBitmapFromFile(filePath, options, reqWidth, reqHeight, pool, policy);
 	}
 	
-	public static Bitmap rotateBitmapFromExif(String filePath, Bitmap bitmap) {
-		BitmapFactory.Options options = new BitmapFactory.Options();
-		options.inJustDecodeBounds = true;
-		BitmapFactory.decodeFile(filePath, options);
+	/**
+	 * Decode a subsampled bitmap using bounds that have already been read
+	 * @param filePath The image file
+	 * @param bounds Options filled in by a bounds only decode. Reused for the real decode.
+	 * @param reqWidth The requested width
+	 * @param reqHeight The requested height
+	 * @param pool The pool to reuse bitmaps from (may be null)
+	 * @param policy How to configure the decode
+	 * @return The decoded bitmap or null if the file couldn't be decoded
+	 */
+	private static Bitmap decodeSampledBitmapFromFile(String filePath, BitmapFactory.Options bounds, int reqWidth, int reqHeight, 
+			BitmapPool pool, DecodePolicy policy) {
+		policy.apply(bounds, bounds.outWidth, bounds.outHeight, reqWidth, reqHeight);
 		
-		String orientString;
+		return decodeFile(filePath, bounds, pool);
+	}
+	
+	/**
+	 * Read the EXIF orientation of an image file
+	 * @param filePath The image file
+	 * @return One of the ExifInterface.ORIENTATION_ constants, ORIENTATION_NORMAL if there isn't one
+	 */
+	public static int getExifOrientation(String filePath) {
 		try {
 			ExifInterface exif = new ExifInterface(filePath);
-			orientString = exif.getAttribute(ExifInterface.TAG_ORIENTATION);
+			return exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+		} catch (IOException e) {
+			e.printStackTrace();
+			return ExifInterface.ORIENTATION_NORMAL;
+		}
+	}
+	
+	/**
+	 * Decode an image file so it fits inside a requested size, the right way up according to its EXIF
+	 * orientation. The file is opened once for both the bounds and the pixels, the pixels are decoded
+	 * subsampled, and the rotation (or flip) and the exact scale are applied in one Matrix transform, so
+	 * only the subsampled bitmap and the result ever exist.
+	 * <p>
+	 * Note that the platform ExifInterface reads the orientation through its own handle on the file.
+	 * @param filePath The image file
+	 * @param reqWidth The maximum width of the result (after rotation)
+	 * @param reqHeight The maximum height of the result (after rotation)
+	 * @return The decoded bitmap, scaled down (never up) to fit keeping its aspect ratio, or null if the file
+	 * couldn't be decoded
+	 */
+	public static Bitmap decode(String filePath, int reqWidth, int reqHeight) {
+		return decode(filePath, reqWidth, reqHeight, null);
+	}
+	
+	/**
+	 * Same as {@link #decode(String, int, int)} but reuses bitmaps from a pool where possible, and gives
+	 * the intermediate bitmap back to the pool.
+	 * @param pool The pool to reuse bitmaps from (may be null)
+	 */
+	public static Bitmap decode(String filePath, int reqWidth, int reqHeight, BitmapPool pool) {
+		return decode(filePath, reqWidth, reqHeight, pool, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decode(String, int, int, BitmapPool)} but configured by a decode policy. The result
+	 * is shrunk further if needed to fit the policy's byte budget.
+	 * @param policy How to configure the decode
+	 */
+	public static Bitmap decode(String filePath, int reqWidth, int reqHeight, BitmapPool pool, DecodePolicy policy) {
+		return decode(filePath, reqWidth, reqHeight, pool, policy, getExifOrientation(filePath), new BitmapFactory.Options(), null);
+	}
+	
+	/**
+	 * Decode an image file in two stages like {@link #decode(String, int, int, BitmapPool)}: first a quick
+	 * preview at 1/{@value #PREVIEW_SAMPLE_SIZE} of the image's size, handed to the callback so it can be
+	 * shown straight away, then the properly sized bitmap. Both stages share one open of the file. If the
+	 * image is small enough that the full decode is as cheap as the preview, there's no preview.
+	 * @param filePath The image file
+	 * @param reqWidth The maximum width of the result (after rotation)
+	 * @param reqHeight The maximum height of the result (after rotation)
+	 * @param options Fresh options to decode with. Calling {@link BitmapFactory.Options#requestCancelDecode()}
+	 * on them from another thread stops whichever stage is running.
+	 * @param callback Receives the preview and is asked whether to carry on after it
+	 * @param pool The pool to reuse bitmaps from for both stages (may be null)
+	 * @return The decoded bitmap or null if the file couldn't be decoded or the decode was cancelled
+	 */
+	public static Bitmap decodeProgressive(String filePath, int reqWidth, int reqHeight, BitmapFactory.Options options, 
+			PreviewCallback callback, BitmapPool pool) {
+		return decodeProgressive(filePath, reqWidth, reqHeight, options, callback, pool, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decodeProgressive(String, int, int, BitmapFactory.Options, PreviewCallback, BitmapPool)}
+	 * but configured by a decode policy. The preview uses the same pixel format.
+	 * @param policy How to configure the decode
+	 */
+	public static Bitmap decodeProgressive(String filePath, int reqWidth, int reqHeight, BitmapFactory.Options options, 
+			PreviewCallback callback, BitmapPool pool, DecodePolicy policy) {
+		return decode(filePath, reqWidth, reqHeight, pool, policy, getExifOrientation(filePath), options, callback);
+	}
+	
+	/**
+	 * @see #decode(String, int, int, BitmapPool)
+	 * @param policy How to configure the decode
+	 * @param orientation The image's EXIF orientation, if it's already been read
+	 * @param options Options to decode with
+	 * @param callback Callback for a preview stage (may be null for none)
+	 */
+	private static Bitmap decode(String filePath, int reqWidth, int reqHeight, BitmapPool pool, DecodePolicy policy, 
+			int orientation, BitmapFactory.Options options, PreviewCallback callback) {
+		FileInputStream fsin = null;
+		try {
+			fsin = new FileInputStream(filePath);
+			final FileDescriptor fd = fsin.getFD();
+			options.inJustDecodeBounds = true;
+			BitmapFactory.decodeFileDescriptor(fd, null, options);
+			if (options.outWidth <= 0 || options.outHeight <= 0) {
+				return null;
+			}
+			
+			final boolean swap = swapsDimensions(orientation);
+			final int width = swap ? options.outHeight : options.outWidth;
+			final int height = swap ? options.outWidth : options.outHeight;
+			float scale = Math.min(1f, Math.min((float) reqWidth / width, (float) reqHeight / height));
+			scale *= policy.getBudgetScale(Math.round(width * scale), Math.round(height * scale), 
+					policy.getConfig(options.outMimeType));
+			final int outWidth = Math.max(1, Math.round(width * scale));
+			final int outHeight = Math.max(1, Math.round(height * scale));
+			
+			policy.apply(options, width, height, outWidth, outHeight);
+			final int sampleSize = options.inSampleSize;
+			if (callback != null && sampleSize < PREVIEW_SAMPLE_SIZE) {
+				final int boundsWidth = options.outWidth, boundsHeight = options.outHeight;
+				// The policy's density scaling is worked out for the full decode, the preview is small enough
+				final int density = options.inDensity, targetDensity = options.inTargetDensity;
+				options.inDensity = 0;
+				options.inTargetDensity = 0;
+				options.inSampleSize = PREVIEW_SAMPLE_SIZE;
+				Bitmap preview = decodeFileDescriptor(fsin, options, pool);
+				options.inDensity = density;
+				options.inTargetDensity = targetDensity;
+				// Don't let the full decode reuse the preview, the callback has it now
+				clearCandidate(options);
+				if (preview != null) {
+					callback.onPreview(transform(preview, swap ? preview.getHeight() : preview.getWidth(), 
+							swap ? preview.getWidth() : preview.getHeight(), orientation, pool));
+				}
+				if (callback.isCancelled()) {
+					return null;
+				}
+				// A real decode leaves the sampled size in here, the pool wants the full size
+				options.outWidth = boundsWidth;
+				options.outHeight = boundsHeight;
+			}
+			options.inSampleSize = sampleSize;
+			Bitmap bitmap = decodeFileDescriptor(fsin, options, pool);
+			return transform(bitmap, outWidth, outHeight, orientation, pool);
 		} catch (IOException e) {
 			e.printStackTrace();
+			return null;
+		} finally {
+			if (fsin != null) {
+				try {
+					fsin.close();
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Scale a decoded bitmap to its final size and turn it the right way up in one Matrix transform
+	 * @param bitmap The decoded bitmap, as stored in the file (may be null)
+	 * @param outWidth The final width (after rotation)
+	 * @param outHeight The final height (after rotation)
+	 * @param orientation The EXIF orientation of the image
+	 * @param pool Pool to give the decoded bitmap back to if a new one is made (may be null)
+	 * @return The transformed bitmap, or null if bitmap was null
+	 */
+	private static Bitmap transform(Bitmap bitmap, int outWidth, int outHeight, int orientation, BitmapPool pool) {
+		if (bitmap == null) {
+			return null;
+		}
+		final boolean swap = swapsDimensions(orientation);
+		// Scale in the bitmap's own (unrotated) axes first, then rotate/ flip
+		Matrix matrix = new Matrix();
+		matrix.setScale((float) (swap ? outHeight : outWidth) / bitmap.getWidth(), 
+				(float) (swap ? outWidth : outHeight) / bitmap.getHeight());
+		applyExifOrientation(matrix, orientation);
+		if (matrix.isIdentity()) {
 			return bitmap;
 		}
+		Bitmap transformed = Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix, true);
+		if (transformed != bitmap) {
+			release(bitmap, pool);
+		}
+		return transformed;
+	}
+	
+	/**
+	 * Decode a thumbnail of an image file, like {@link #decode(String, int, int)}, but using the small
+	 * thumbnail embedded in the EXIF data (which most camera JPEGs have) when it's big enough for the
+	 * requested size and has the same aspect ratio as the image. Only falls back to decoding the full image
+	 * (subsampled) otherwise.
+	 * @param filePath The image file
+	 * @param reqWidth The maximum width of the result (after rotation)
+	 * @param reqHeight The maximum height of the result (after rotation)
+	 * @return The thumbnail or null if the file couldn't be decoded
+	 */
+	public static Bitmap decodeThumbnail(String filePath, int reqWidth, int reqHeight) {
+		return decodeThumbnail(filePath, reqWidth, reqHeight, null, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decodeThumbnail(String, int, int)} but reuses bitmaps from a pool where possible
+	 * @param pool The pool to reuse bitmaps from (may be null)
+	 */
+	public static Bitmap decodeThumbnail(String filePath, int reqWidth, int reqHeight, BitmapPool pool) {
+		return decodeThumbnail(filePath, reqWidth, reqHeight, pool, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #decodeThumbnail(String, int, int, BitmapPool)} but configured by a decode policy. The
+	 * result is shrunk further if needed to fit the policy's byte budget.
+	 * @param policy How to configure the decode
+	 */
+	public static Bitmap decodeThumbnail(String filePath, int reqWidth, int reqHeight, BitmapPool pool, DecodePolicy policy) {
+		int orientation = ExifInterface.ORIENTATION_NORMAL;
+		byte[] thumb = null;
+		try {
+			ExifInterface exif = new ExifInterface(filePath);
+			orientation = exif.getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
+			if (exif.hasThumbnail()) {
+				thumb = exif.getThumbnail();
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
 		
-		int orientation = (orientString != null) ? Integer.parseInt(orientString) : ExifInterface.ORIENTATION_NORMAL;
+		if (thumb != null) {
+			Bitmap bitmap = decodeEmbeddedThumbnail(filePath, thumb, reqWidth, reqHeight, orientation, pool, policy);
+			if (bitmap != null) {
+				return bitmap;
+			}
+		}
+		return decode(filePath, reqWidth, reqHeight, pool, policy, orientation, new BitmapFactory.Options(), null);
+	}
+	
+	/**
+	 * Decode an embedded EXIF thumbnail if it's good enough to stand in for the full image
+	 * @return The thumbnail or null if it's too small, the wrong shape (e.g. letterboxed) or couldn't be decoded
+	 */
+	private static Bitmap decodeEmbeddedThumbnail(String filePath, byte[] thumb, int reqWidth, int reqHeight, 
+			int orientation, BitmapPool pool, DecodePolicy policy) {
+		BitmapFactory.Options options = new BitmapFactory.Options();
+		options.inJustDecodeBounds = true;
+		BitmapFactory.decodeByteArray(thumb, 0, thumb.length, options);
+		final int thumbWidth = options.outWidth, thumbHeight = options.outHeight;
+		// Only reads the header
+		BitmapFactory.decodeFile(filePath, options);
+		final int imageWidth = options.outWidth, imageHeight = options.outHeight;
+		if (thumbWidth <= 0 || thumbHeight <= 0 || imageWidth <= 0 || imageHeight <= 0) {
+			return null;
+		}
+		final float imageAspect = (float) imageWidth / imageHeight;
+		if (Math.abs((float) thumbWidth / thumbHeight - imageAspect) > imageAspect * MAX_THUMBNAIL_ASPECT_ERROR) {
+			return null;
+		}
+		
+		// Work out the size the full image would be decoded to, in its stored (unrotated) axes
+		final boolean swap = swapsDimensions(orientation);
+		float scale = Math.min(1f, Math.min((float) (swap ? reqHeight : reqWidth) / imageWidth, 
+				(float) (swap ? reqWidth : reqHeight) / imageHeight));
+		scale *= policy.getBudgetScale(Math.round(imageWidth * scale), Math.round(imageHeight * scale), 
+				policy.getConfig(options.outMimeType));
+		final int width = Math.max(1, Math.round(imageWidth * scale));
+		final int height = Math.max(1, Math.round(imageHeight * scale));
+		if (thumbWidth < width || thumbHeight < height) {
+			return null;
+		}
+		
+		// Embedded thumbnails are always JPEGs
+		options.outWidth = thumbWidth;
+		options.outHeight = thumbHeight;
+		options.outMimeType = "image/jpeg";
+		policy.apply(options, thumbWidth, thumbHeight, width, height);
+		Bitmap bitmap = BitmapFactory.decodeByteArray(thumb, 0, thumb.length, options);
+		return transform(bitmap, swap ? height : width, swap ? width : height, orientation, pool);
+	}
+	
+	/**
+	 * @return True if an EXIF orientation swaps the width and height of the image
+	 */
+	private static boolean swapsDimensions(int orientation) {
+		switch (orientation) {
+			case ExifInterface.ORIENTATION_ROTATE_90:
+			case ExifInterface.ORIENTATION_ROTATE_270:
+			case ExifInterface.ORIENTATION_TRANSPOSE:
+			case ExifInterface.ORIENTATION_TRANSVERSE:
+				return true;
+			default:
+				return false;
+		}
+	}
+	
+	/**
+	 * Append the transform for an EXIF orientation to a matrix
+	 */
+	private static void applyExifOrientation(Matrix matrix, int orientation) {
+		switch (orientation) {
+			case ExifInterface.ORIENTATION_FLIP_HORIZONTAL:
+				matrix.postScale(-1, 1);
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_180:
+				matrix.postRotate(180);
+				break;
+			case ExifInterface.ORIENTATION_FLIP_VERTICAL:
+				matrix.postScale(1, -1);
+				break;
+			case ExifInterface.ORIENTATION_TRANSPOSE:
+				matrix.postRotate(90);
+				matrix.postScale(-1, 1);
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_90:
+				matrix.postRotate(90);
+				break;
+			case ExifInterface.ORIENTATION_TRANSVERSE:
+				matrix.postRotate(-90);
+				matrix.postScale(-1, 1);
+				break;
+			case ExifInterface.ORIENTATION_ROTATE_270:
+				matrix.postRotate(270);
+				break;
+		}
+	}
+	
+	public static Bitmap rotateBitmapFromExif(String filePath, Bitmap bitmap) {
+		int orientation = getExifOrientation(filePath);
 		int rotationAngle = 0, outHeight = 0, outWidth = 0;
 		switch (orientation) {
 			case ExifInterface.ORIENTATION_ROTATE_90:
@@ -121,6 +718,15 @@ public class BitmapUtil {
 	}
 	
 	public static Bitmap createScaledRotatedBitmapFromFile(String filePath, int reqWidth, int reqHeight, int orientation) {
+		return createScaledRotatedBitmapFromFile(filePath, reqWidth, reqHeight, orientation, DecodePolicy.DEFAULT);
+	}
+	
+	/**
+	 * Same as {@link #createScaledRotatedBitmapFromFile(String, int, int, int)} but configured by a decode policy
+	 * @param policy How to configure the decode
+	 */
+	public static Bitmap createScaledRotatedBitmapFromFile(String filePath, int reqWidth, int reqHeight, int orientation, 
+			DecodePolicy policy) {
 		BitmapFactory.Options options = new BitmapFactory.Options();
 		options.inJustDecodeBounds = true;
 		BitmapFactory.decodeFile(filePath, options);
@@ -134,9 +740,9 @@ public class BitmapUtil {
 				} else {
 					
 				}
-				bitmap = decodeSampledBitmapFromFile(filePath, reqWidth, reqHeight);
+				bitmap = decodeSampledBitmapFromFile(filePath, options, reqWidth, reqHeight, null, policy);
 			} else {
-				bitmap = decodeSampledBitmapFromFile(filePath, reqHeight, reqWidth);
+				bitmap = decodeSampledBitmapFromFile(filePath, options, reqHeight, reqWidth, null, policy);
 			}
 			outHeight = bitmap.getWidth();
 			outWidth = bitmap.getHeight();
@@ -147,9 +753,9 @@ public class BitmapUtil {
 				} else {
 					rotationAngle = 270;
 				}
-				bitmap = decodeSampledBitmapFromFile(filePath, reqHeight, reqWidth);
+				bitmap = decodeSampledBitmapFromFile(filePath, options, reqHeight, reqWidth, null, policy);
 			} else {
-				bitmap = decodeSampledBitmapFromFile(filePath, reqWidth, reqHeight);
+				bitmap = decodeSampledBitmapFromFile(filePath, options, reqWidth, reqHeight, null, policy);
 			}
 			outHeight = bitmap.getWidth();
 			outWidth = bitmap.getHeight();
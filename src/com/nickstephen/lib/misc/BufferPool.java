@@ -0,0 +1,68 @@
+package com.nickstephen.lib.misc;
+
+/**
+ * Per-thread pool of large scratch buffers for stream copying and decoding. Each thread keeps at most
+ * one byte buffer and one char buffer; acquiring takes the thread's buffer (or allocates a new one
+ * if it's already in use further up the stack) and releasing hands it back for the next caller.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class BufferPool {
+	/**
+	 * The size of the pooled buffers, in bytes or chars respectively
+	 */
+	public static final int BUFFER_SIZE = 64 * 1024;
+	
+	private static final ThreadLocal<byte[]> sByteBuffers = new ThreadLocal<byte[]>();
+	private static final ThreadLocal<char[]> sCharBuffers = new ThreadLocal<char[]>();
+	
+	private BufferPool() {}
+	
+	/**
+	 * Get a byte buffer of {@link #BUFFER_SIZE} bytes. Hand it back with {@link #release(byte[])}
+	 * when done, ideally in a finally block.
+	 * @return A scratch buffer. Its contents are undefined.
+	 */
+	public static byte[] acquireBytes() {
+		byte[] buff = sByteBuffers.get();
+		if (buff == null) {
+			return new byte[BUFFER_SIZE];
+		}
+		sByteBuffers.set(null);
+		return buff;
+	}
+	
+	/**
+	 * Return a buffer from {@link #acquireBytes()} to the pool. The caller must not use it afterwards.
+	 * @param buff The buffer to return
+	 */
+	public static void release(byte[] buff) {
+		if (buff != null && buff.length == BUFFER_SIZE) {
+			sByteBuffers.set(buff);
+		}
+	}
+	
+	/**
+	 * Get a char buffer of {@link #BUFFER_SIZE} chars. Hand it back with {@link #release(char[])}
+	 * when done, ideally in a finally block.
+	 * @return A scratch buffer. Its contents are undefined.
+	 */
+	public static char[] acquireChars() {
+		char[] buff = sCharBuffers.get();
+		if (buff == null) {
+			return new char[BUFFER_SIZE];
+		}
+		sCharBuffers.set(null);
+		return buff;
+	}
+	
+	/**
+	 * Return a buffer from {@link #acquireChars()} to the pool. The caller must not use it afterwards.
+	 * @param buff The buffer to return
+	 */
+	public static void release(char[] buff) {
+		if (buff != null && buff.length == BUFFER_SIZE) {
+			sCharBuffers.set(buff);
+		}
+	}
+}
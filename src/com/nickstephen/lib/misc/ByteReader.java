@@ -0,0 +1,309 @@
+package com.nickstephen.lib.misc;
+
+import java.nio.ByteOrder;
+
+/**
+ * A cursor over a byte array that values can be sequentially read from using the same
+ * encoding as {@link BitConverter}. The counterpart of {@link ByteWriter}; it never allocates
+ * once created and can be pointed at a new buffer with {@link #setBuffer(byte[], int, int)}.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class ByteReader {
+	private byte[] mBuffer;
+	private int mOffset;
+	private int mLimit;
+	private int mPosition;
+	private EndianBitConverter mConverter = EndianBitConverter.BIG_ENDIAN;
+	
+	/**
+	 * Create a new reader over the whole of a buffer
+	 * @param buffer The buffer to read from
+	 */
+	public ByteReader(byte[] buffer) {
+		this(buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * Create a new reader over a region of a buffer
+	 * @param buffer The buffer to read from
+	 * @param offset The index of the first byte to read
+	 * @param length The number of bytes from offset that may be read
+	 */
+	public ByteReader(byte[] buffer, int offset, int length) {
+		setBuffer(buffer, offset, length);
+	}
+	
+	/**
+	 * Point the reader at a different buffer region and rewind it
+	 * @param buffer The buffer to read from
+	 * @param offset The index of the first byte to read
+	 * @param length The number of bytes from offset that may be read
+	 */
+	public void setBuffer(byte[] buffer, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > buffer.length) {
+			throw new IndexOutOfBoundsException("Region lies outside of the buffer");
+		}
+		mBuffer = buffer;
+		mOffset = offset;
+		mLimit = offset + length;
+		mPosition = offset;
+	}
+	
+	/**
+	 * Rewind the reader to the start of its region
+	 */
+	public void reset() {
+		mPosition = mOffset;
+	}
+	
+	/**
+	 * @return The byte order multi-byte values are read with
+	 */
+	public ByteOrder getByteOrder() {
+		return mConverter.getOrder();
+	}
+	
+	/**
+	 * Set the byte order multi-byte values are read with. Defaults to big-endian, the same as {@link BitConverter}.
+	 * @param order The new byte order
+	 */
+	public void setByteOrder(ByteOrder order) {
+		mConverter = EndianBitConverter.forOrder(order);
+	}
+	
+	/**
+	 * @return The underlying buffer
+	 */
+	public byte[] getBuffer() {
+		return mBuffer;
+	}
+	
+	/**
+	 * @return The index in the underlying buffer that the next value will be read from
+	 */
+	public int getPosition() {
+		return mPosition;
+	}
+	
+	/**
+	 * Move the cursor to an absolute index in the underlying buffer
+	 * @param position The new index (must be inside the reader's region)
+	 */
+	public void setPosition(int position) {
+		if (position < mOffset || position > mLimit) {
+			throw new IndexOutOfBoundsException("Position lies outside of the reader's region");
+		}
+		mPosition = position;
+	}
+	
+	/**
+	 * @return The number of bytes left to read
+	 */
+	public int remaining() {
+		return mLimit - mPosition;
+	}
+	
+	/**
+	 * Skip over a number of bytes
+	 * @param bytes The number of bytes to skip
+	 */
+	public void skip(int bytes) {
+		require(bytes);
+		mPosition += bytes;
+	}
+	
+	private void require(int bytes) {
+		if (bytes < 0) {
+			throw new IndexOutOfBoundsException("Negative length " + bytes);
+		} else if (mLimit - mPosition < bytes) {
+			throw new IndexOutOfBoundsException("Not enough bytes left in the buffer to read " + bytes + " bytes");
+		}
+	}
+	
+	/**
+	 * Read a boolean written as a single byte
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there isn't a byte left
+	 */
+	public boolean readBoolean() {
+		require(1);
+		return BitConverter.readBoolean(mBuffer, mPosition++);
+	}
+	
+	/**
+	 * Read a single byte
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there isn't a byte left
+	 */
+	public byte readByte() {
+		require(1);
+		return mBuffer[mPosition++];
+	}
+	
+	/**
+	 * Read a char from 2 bytes in the reader's byte order
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there are fewer than 2 bytes left
+	 */
+	public char readChar() {
+		require(2);
+		final char ret = mConverter.readChar(mBuffer, mPosition);
+		mPosition += 2;
+		return ret;
+	}
+	
+	/**
+	 * Read a short from 2 bytes in the reader's byte order
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there are fewer than 2 bytes left
+	 */
+	public short readInt16() {
+		require(2);
+		final short ret = mConverter.readInt16(mBuffer, mPosition);
+		mPosition += 2;
+		return ret;
+	}
+	
+	/**
+	 * Read an int from 4 bytes in the reader's byte order
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there are fewer than 4 bytes left
+	 */
+	public int readInt32() {
+		require(4);
+		final int ret = mConverter.readInt32(mBuffer, mPosition);
+		mPosition += 4;
+		return ret;
+	}
+	
+	/**
+	 * Read a long from 8 bytes in the reader's byte order
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there are fewer than 8 bytes left
+	 */
+	public long readInt64() {
+		require(8);
+		final long ret = mConverter.readInt64(mBuffer, mPosition);
+		mPosition += 8;
+		return ret;
+	}
+	
+	/**
+	 * Read a float from its 4 IEEE 754 bytes in the reader's byte order
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there are fewer than 4 bytes left
+	 */
+	public float readSingle() {
+		return Float.intBitsToFloat(readInt32());
+	}
+	
+	/**
+	 * Read a double from its 8 IEEE 754 bytes in the reader's byte order
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If there are fewer than 8 bytes left
+	 */
+	public double readDouble() {
+		return Double.longBitsToDouble(readInt64());
+	}
+	
+	/**
+	 * Read an unsigned LEB128 varint written by {@link ByteWriter#writeVarInt32(int)}
+	 * @return The decoded value
+	 */
+	public int readVarInt32() {
+		final byte[] b = mBuffer;
+		int pos = mPosition;
+		int ret = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (pos >= mLimit) {
+				throw new IndexOutOfBoundsException("Varint runs past the end of the buffer");
+			}
+			final byte x = b[pos++];
+			ret |= (x & 0x7F) << shift;
+			if (x >= 0) {
+				mPosition = pos;
+				return ret;
+			}
+		}
+		throw new IllegalStateException("Malformed varint: longer than " + BitConverter.MAX_VARINT32_SIZE + " bytes");
+	}
+	
+	/**
+	 * Read an unsigned LEB128 varint written by {@link ByteWriter#writeVarInt64(long)}
+	 * @return The decoded value
+	 */
+	public long readVarInt64() {
+		final byte[] b = mBuffer;
+		int pos = mPosition;
+		long ret = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			if (pos >= mLimit) {
+				throw new IndexOutOfBoundsException("Varint runs past the end of the buffer");
+			}
+			final byte x = b[pos++];
+			ret |= (long)(x & 0x7F) << shift;
+			if (x >= 0) {
+				mPosition = pos;
+				return ret;
+			}
+		}
+		throw new IllegalStateException("Malformed varint: longer than " + BitConverter.MAX_VARINT64_SIZE + " bytes");
+	}
+	
+	/**
+	 * Read a zig-zag encoded varint written by {@link ByteWriter#writeSignedVarInt32(int)}
+	 * @return The decoded value
+	 */
+	public int readSignedVarInt32() {
+		return BitConverter.zigZagDecode32(readVarInt32());
+	}
+	
+	/**
+	 * Read a zig-zag encoded varint written by {@link ByteWriter#writeSignedVarInt64(long)}
+	 * @return The decoded value
+	 */
+	public long readSignedVarInt64() {
+		return BitConverter.zigZagDecode64(readVarInt64());
+	}
+	
+	/**
+	 * Read a run of longs written as zig-zag varint deltas by {@link ByteWriter#writeDeltaVarInts(long[], int, int)}
+	 * or {@link BitConverter#putDeltaVarInts(long[], int, int, byte[], int)}
+	 * @param dst The array to read the values into
+	 * @param off The index of the first value in dst
+	 * @param len The number of values to read
+	 */
+	public void readDeltaVarInts(long[] dst, int off, int len) {
+		long prev = 0;
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			prev += readSignedVarInt64();
+			dst[i] = prev;
+		}
+	}
+	
+	/**
+	 * Read a length prefixed UTF-8 string written by {@link ByteWriter#writeString(String)}
+	 * @return The decoded string
+	 */
+	public String readString() {
+		final int len = readVarInt32();
+		require(len);
+		final String ret = BitConverter.readUtf8(mBuffer, mPosition, len);
+		mPosition += len;
+		return ret;
+	}
+	
+	/**
+	 * Copy bytes out of the buffer into another array
+	 * @param dst The array to copy into
+	 * @param off The index in dst to start copying to
+	 * @param len The number of bytes to copy
+	 */
+	public void readBytes(byte[] dst, int off, int len) {
+		require(len);
+		System.arraycopy(mBuffer, mPosition, dst, off, len);
+		mPosition += len;
+	}
+}
@@ -0,0 +1,308 @@
+package com.nickstephen.lib.misc;
+
+import java.nio.ByteOrder;
+
+/**
+ * A cursor over a byte array that values can be sequentially written into using the same
+ * encoding as {@link BitConverter}. The writer never allocates once created, so a single buffer
+ * can be reused (via {@link #reset()}) to encode any number of records.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class ByteWriter {
+	private byte[] mBuffer;
+	private int mOffset;
+	private int mLimit;
+	private int mPosition;
+	private EndianBitConverter mConverter = EndianBitConverter.BIG_ENDIAN;
+	
+	/**
+	 * Create a new writer with its own buffer of the given size
+	 * @param capacity The size of the buffer in bytes
+	 */
+	public ByteWriter(int capacity) {
+		this(new byte[capacity]);
+	}
+	
+	/**
+	 * Create a new writer over the whole of an existing buffer
+	 * @param buffer The buffer to write into
+	 */
+	public ByteWriter(byte[] buffer) {
+		this(buffer, 0, buffer.length);
+	}
+	
+	/**
+	 * Create a new writer over a region of an existing buffer
+	 * @param buffer The buffer to write into
+	 * @param offset The index of the first byte that may be written
+	 * @param length The number of bytes from offset that may be written
+	 */
+	public ByteWriter(byte[] buffer, int offset, int length) {
+		setBuffer(buffer, offset, length);
+	}
+	
+	/**
+	 * Point the writer at a different buffer region and rewind it. Useful when buffers are pooled.
+	 * @param buffer The buffer to write into
+	 * @param offset The index of the first byte that may be written
+	 * @param length The number of bytes from offset that may be written
+	 */
+	public void setBuffer(byte[] buffer, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > buffer.length) {
+			throw new IndexOutOfBoundsException("Region lies outside of the buffer");
+		}
+		mBuffer = buffer;
+		mOffset = offset;
+		mLimit = offset + length;
+		mPosition = offset;
+	}
+	
+	/**
+	 * Rewind the writer to the start of its region so the buffer can be reused
+	 */
+	public void reset() {
+		mPosition = mOffset;
+	}
+	
+	/**
+	 * @return The byte order multi-byte values are written with
+	 */
+	public ByteOrder getByteOrder() {
+		return mConverter.getOrder();
+	}
+	
+	/**
+	 * Set the byte order multi-byte values are written with. Defaults to big-endian, the same as {@link BitConverter}.
+	 * @param order The new byte order
+	 */
+	public void setByteOrder(ByteOrder order) {
+		mConverter = EndianBitConverter.forOrder(order);
+	}
+	
+	/**
+	 * @return The underlying buffer
+	 */
+	public byte[] getBuffer() {
+		return mBuffer;
+	}
+	
+	/**
+	 * @return The index in the underlying buffer that the next value will be written at
+	 */
+	public int getPosition() {
+		return mPosition;
+	}
+	
+	/**
+	 * Move the cursor to an absolute index in the underlying buffer
+	 * @param position The new index (must be inside the writer's region)
+	 */
+	public void setPosition(int position) {
+		if (position < mOffset || position > mLimit) {
+			throw new IndexOutOfBoundsException("Position lies outside of the writer's region");
+		}
+		mPosition = position;
+	}
+	
+	/**
+	 * @return The number of bytes written since the start of the region
+	 */
+	public int length() {
+		return mPosition - mOffset;
+	}
+	
+	/**
+	 * @return The number of bytes that can still be written
+	 */
+	public int remaining() {
+		return mLimit - mPosition;
+	}
+	
+	/**
+	 * Copy the written bytes out into a new array. Note that this allocates.
+	 * @return A new array containing everything written so far
+	 */
+	public byte[] toByteArray() {
+		byte[] ret = new byte[mPosition - mOffset];
+		System.arraycopy(mBuffer, mOffset, ret, 0, ret.length);
+		return ret;
+	}
+	
+	private void require(int bytes) {
+		if (bytes < 0) {
+			throw new IndexOutOfBoundsException("Negative length " + bytes);
+		} else if (mLimit - mPosition < bytes) {
+			throw new IndexOutOfBoundsException("Not enough room left in the buffer for " + bytes + " bytes");
+		}
+	}
+	
+	/**
+	 * Write a boolean as a single byte
+	 * @param x The value to be written
+	 * @return This writer
+	 * @throws IndexOutOfBoundsException If there isn't a byte of room left
+	 */
+	public ByteWriter writeBoolean(boolean x) {
+		require(1);
+		mPosition = BitConverter.putBoolean(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write a single byte
+	 * @param x The value to be written
+	 * @return This writer
+	 * @throws IndexOutOfBoundsException If there isn't a byte of room left
+	 */
+	public ByteWriter writeByte(byte x) {
+		require(1);
+		mBuffer[mPosition++] = x;
+		return this;
+	}
+	
+	/**
+	 * Write a short as 2 bytes in the writer's byte order
+	 * @param x The value to be written
+	 * @return This writer
+	 * @throws IndexOutOfBoundsException If there are fewer than 2 bytes of room left
+	 */
+	public ByteWriter writeInt16(short x) {
+		require(2);
+		mPosition = mConverter.putInt16(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write an int as 4 bytes in the writer's byte order
+	 * @param x The value to be written
+	 * @return This writer
+	 * @throws IndexOutOfBoundsException If there are fewer than 4 bytes of room left
+	 */
+	public ByteWriter writeInt32(int x) {
+		require(4);
+		mPosition = mConverter.putInt32(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write a long as 8 bytes in the writer's byte order
+	 * @param x The value to be written
+	 * @return This writer
+	 * @throws IndexOutOfBoundsException If there are fewer than 8 bytes of room left
+	 */
+	public ByteWriter writeInt64(long x) {
+		require(8);
+		mPosition = mConverter.putInt64(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write a float as its 4 IEEE 754 bytes in the writer's byte order
+	 * @param x The value to be written
+	 * @return This writer
+	 * @throws IndexOutOfBoundsException If there are fewer than 4 bytes of room left
+	 */
+	public ByteWriter writeSingle(float x) {
+		require(4);
+		mPosition = mConverter.putSingle(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write a double as its 8 IEEE 754 bytes in the writer's byte order
+	 * @param x The value to be written
+	 * @return This writer
+	 * @throws IndexOutOfBoundsException If there are fewer than 8 bytes of room left
+	 */
+	public ByteWriter writeDouble(double x) {
+		require(8);
+		mPosition = mConverter.putDouble(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write an int as an unsigned LEB128 varint. See {@link BitConverter#putVarInt32(byte[], int, int)}.
+	 * @param x The value to be written
+	 * @return This writer
+	 */
+	public ByteWriter writeVarInt32(int x) {
+		require(BitConverter.varInt32Size(x));
+		mPosition = BitConverter.putVarInt32(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write a long as an unsigned LEB128 varint. See {@link BitConverter#putVarInt64(byte[], int, long)}.
+	 * @param x The value to be written
+	 * @return This writer
+	 */
+	public ByteWriter writeVarInt64(long x) {
+		require(BitConverter.varInt64Size(x));
+		mPosition = BitConverter.putVarInt64(mBuffer, mPosition, x);
+		return this;
+	}
+	
+	/**
+	 * Write an int as a zig-zag encoded varint, which keeps small negative values small
+	 * @param x The value to be written
+	 * @return This writer
+	 */
+	public ByteWriter writeSignedVarInt32(int x) {
+		return writeVarInt32(BitConverter.zigZagEncode32(x));
+	}
+	
+	/**
+	 * Write a long as a zig-zag encoded varint, which keeps small negative values small
+	 * @param x The value to be written
+	 * @return This writer
+	 */
+	public ByteWriter writeSignedVarInt64(long x) {
+		return writeVarInt64(BitConverter.zigZagEncode64(x));
+	}
+	
+	/**
+	 * Write a run of longs as zig-zag varint deltas. See {@link BitConverter#putDeltaVarInts(long[], int, int, byte[], int)}.
+	 * @param src The values to be written
+	 * @param off The index of the first value in src
+	 * @param len The number of values to write
+	 * @return This writer
+	 */
+	public ByteWriter writeDeltaVarInts(long[] src, int off, int len) {
+		long prev = 0;
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			writeSignedVarInt64(src[i] - prev);
+			prev = src[i];
+		}
+		return this;
+	}
+	
+	/**
+	 * Write a string as its UTF-8 length (as a varint) followed by the UTF-8 bytes. Read it back
+	 * with {@link ByteReader#readString()}.
+	 * @param x The string to be written
+	 * @return This writer
+	 */
+	public ByteWriter writeString(String x) {
+		final int len = BitConverter.utf8Length(x);
+		require(BitConverter.varInt32Size(len) + len);
+		mPosition = BitConverter.putVarInt32(mBuffer, mPosition, len);
+		mPosition = BitConverter.putUtf8(x, mBuffer, mPosition);
+		return this;
+	}
+	
+	/**
+	 * Copy a region of another array into the buffer
+	 * @param src The array to copy from
+	 * @param off The index in src to start copying from
+	 * @param len The number of bytes to copy
+	 * @return This writer
+	 */
+	public ByteWriter writeBytes(byte[] src, int off, int len) {
+		require(len);
+		System.arraycopy(src, off, mBuffer, mPosition, len);
+		mPosition += len;
+		return this;
+	}
+}
@@ -0,0 +1,127 @@
+package com.nickstephen.lib.misc;
+
+import android.content.res.Resources;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+/**
+ * How {@link BitmapUtil} configures a decode: which pixel format to decode to, the (power of two) sample
+ * size, and, given a byte budget, how far to shrink the result so it fits. JPEGs are always opaque so they
+ * can be decoded to RGB_565 at half the memory of ARGB_8888; images that may have alpha never are. If even
+ * the subsampled decode is over the budget, the rest of the way is made up with
+ * {@link BitmapFactory.Options#inDensity}/{@link BitmapFactory.Options#inTargetDensity} scaling while
+ * decoding, rather than doubling the sample size and overshooting. Before KitKat
+ * {@link BitmapFactory#decodeByteArray} ignores the density fields, so embedded EXIF thumbnails are scaled
+ * down after decoding instead.
+ * <p>
+ * Policies are immutable, so make one per call if the budget changes from call to call.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class DecodePolicy {
+	/**
+	 * ARGB_8888 and no byte budget, i.e. how BitmapUtil always decoded
+	 */
+	public static final DecodePolicy DEFAULT = new DecodePolicy(0, false);
+	private static final String MIME_JPEG = "image/jpeg";
+	
+	private final long mMaxBytes;
+	private final boolean mAllowRgb565;
+	
+	/**
+	 * Create a policy that decodes opaque images to RGB_565 and keeps results within a byte budget
+	 * @param maxBytes The maximum number of bytes of the decoded bitmap, or 0 for no limit
+	 */
+	public DecodePolicy(long maxBytes) {
+		this(maxBytes, true);
+	}
+	
+	/**
+	 * Create a new policy
+	 * @param maxBytes The maximum number of bytes of the decoded bitmap, or 0 for no limit
+	 * @param allowRgb565 True to decode opaque images (JPEGs) to RGB_565
+	 */
+	public DecodePolicy(long maxBytes, boolean allowRgb565) {
+		mMaxBytes = maxBytes;
+		mAllowRgb565 = allowRgb565;
+	}
+	
+	/**
+	 * @return The maximum number of bytes of a decoded bitmap, or 0 for no limit
+	 */
+	public long getMaxBytes() {
+		return mMaxBytes;
+	}
+	
+	/**
+	 * Get a short string identifying this policy's settings, e.g. for cache keys. Policies with the same key
+	 * decode the same way.
+	 * @return The key
+	 */
+	public String getKey() {
+		return mMaxBytes + (mAllowRgb565 ? "r" : "a");
+	}
+	
+	/**
+	 * Get the pixel format to decode an image to
+	 * @param mimeType The image's MIME type, from {@link BitmapFactory.Options#outMimeType} (may be null)
+	 * @return The pixel format
+	 */
+	public Bitmap.Config getConfig(String mimeType) {
+		return mAllowRgb565 && MIME_JPEG.equalsIgnoreCase(mimeType) ? Bitmap.Config.RGB_565 : Bitmap.Config.ARGB_8888;
+	}
+	
+	/**
+	 * Get the number of bytes per pixel of the pixel format an image is decoded to
+	 * @param mimeType The image's MIME type (may be null)
+	 * @return The number of bytes per pixel
+	 */
+	public int getBytesPerPixel(String mimeType) {
+		return BitmapPool.bytesPerPixel(getConfig(mimeType));
+	}
+	
+	/**
+	 * Get how much a size has to shrink to fit in the byte budget
+	 * @param width The width
+	 * @param height The height
+	 * @param config The pixel format
+	 * @return The scale, from 0 to 1 (1 if it fits or there's no budget)
+	 */
+	public float getBudgetScale(int width, int height, Bitmap.Config config) {
+		final long bytes = (long) width * height * BitmapPool.bytesPerPixel(config);
+		if (mMaxBytes <= 0 || bytes <= mMaxBytes) {
+			return 1f;
+		}
+		return (float) Math.sqrt((double) mMaxBytes / bytes);
+	}
+	
+	/**
+	 * Set up options for a decode whose bounds have already been decoded into them. Sets the pixel format,
+	 * the power of two sample size and, if that still leaves the result over budget, density scaling.
+	 * @param options The options, with outWidth, outHeight and outMimeType filled in
+	 * @param width The width of the part of the image being decoded, before sampling
+	 * @param height The height of the part of the image being decoded, before sampling
+	 * @param reqWidth The width the caller will scale the result to
+	 * @param reqHeight The height the caller will scale the result to
+	 */
+	public void apply(BitmapFactory.Options options, int width, int height, int reqWidth, int reqHeight) {
+		final Bitmap.Config config = getConfig(options.outMimeType);
+		options.inPreferredConfig = config;
+		options.inDither = config == Bitmap.Config.RGB_565;
+		options.inJustDecodeBounds = false;
+		options.inSampleSize = BitmapUtil.calculatePowerOfTwoSampleSize(width, height, reqWidth, reqHeight);
+		
+		final float scale = getBudgetScale(width / options.inSampleSize, height / options.inSampleSize, config);
+		if (scale < 1f) {
+			// Keep the result at screen density, same as an unscaled decode, so it draws at the same size
+			final int density = Resources.getSystem().getDisplayMetrics().densityDpi;
+			options.inScaled = true;
+			options.inTargetDensity = density;
+			options.inScreenDensity = density;
+			options.inDensity = (int) Math.ceil(density / scale);
+		} else {
+			options.inDensity = 0;
+			options.inTargetDensity = 0;
+		}
+	}
+}
@@ -0,0 +1,314 @@
+package com.nickstephen.lib.misc;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.nickstephen.lib.Twig;
+
+import android.os.SystemClock;
+
+/**
+ * Copies files but skips the copy if the destination already has the same content, which makes
+ * re-importing the same files cheap. Files are compared by size and then by a SHA-1 of their content.
+ * Hashes are remembered in a small index file keyed by (path, size, modified time), so files that
+ * haven't changed since the last import aren't even re-read. Both sides of every copy are indexed, so the
+ * second import of a gallery already skips without hashing anything. Entries for files that have since
+ * changed or gone are dropped when the index is saved.
+ * <p>
+ * Call {@link #saveIndex()} when done to persist the hashes. Not thread safe.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class DedupFileCopier {
+	private static final String TAG = "DedupFileCopier";
+	private static final String HASH_ALGORITHM = "SHA-1";
+	
+	private final File mIndexFile;
+	private final FileCopier mCopier;
+	private Map<String, IndexEntry> mIndex;
+	private boolean mIndexDirty = false;
+	
+	private long mBytesCopied = 0;
+	private long mBytesSkipped = 0;
+	private int mFilesCopied = 0;
+	private int mFilesSkipped = 0;
+	private long mBytesHashed = 0;
+	private int mIndexHits = 0;
+	private long mCopyMillis = 0;
+	private long mHashMillis = 0;
+	
+	/**
+	 * Create a new copier
+	 * @param indexFile Where to keep the hash index, e.g. in the app's files dir
+	 */
+	public DedupFileCopier(File indexFile) {
+		this(indexFile, new FileCopier());
+	}
+	
+	/**
+	 * Create a new copier that does the actual copies with a particular FileCopier (e.g. for progress)
+	 * @param indexFile Where to keep the hash index, e.g. in the app's files dir
+	 * @param copier The copier to copy changed files with
+	 */
+	public DedupFileCopier(File indexFile, FileCopier copier) {
+		mIndexFile = indexFile;
+		mCopier = copier;
+	}
+	
+	/**
+	 * Copy a file unless the destination already has the same content
+	 * @param source The file to copy
+	 * @param destination The file to copy to
+	 * @return True if the file was copied, false if the copy was skipped (or cancelled)
+	 * @throws IOException If a file can't be read or the copy fails
+	 */
+	public boolean copy(File source, File destination) throws IOException {
+		loadIndex();
+		final long size = source.length();
+		// Always hash the source, even on a first import where there's nothing to compare with, so the copy
+		// can be indexed. It also leaves the source in the page cache for the copy.
+		final String sourceHash = getHash(source);
+		if (destination.exists() && destination.length() == size && sourceHash.equals(getHash(destination))) {
+			mBytesSkipped += size;
+			mFilesSkipped++;
+			return false;
+		}
+		
+		final long start = SystemClock.uptimeMillis();
+		if (!mCopier.copy(source, destination)) {
+			return false;
+		}
+		mCopyMillis += SystemClock.uptimeMillis() - start;
+		mBytesCopied += size;
+		mFilesCopied++;
+		
+		// The destination now has the source's content, so save hashing it next time. Unless the source
+		// changed while it was being copied, in which case neither hash can be trusted.
+		if (lookup(source) != null) {
+			put(destination, sourceHash);
+		}
+		return true;
+	}
+	
+	/**
+	 * Write the hash index to disk if it's changed
+	 * @throws IOException If the index can't be written
+	 */
+	public void saveIndex() throws IOException {
+		if (mIndex == null) {
+			return;
+		}
+		pruneIndex();
+		if (!mIndexDirty) {
+			return;
+		}
+		AtomicFileWriter writer = new AtomicFileWriter(mIndexFile);
+		OutputStream out = writer.startWrite();
+		try {
+			Writer w = new OutputStreamWriter(out, BitConverter.UTF_8);
+			for (Map.Entry<String, IndexEntry> entry : mIndex.entrySet()) {
+				IndexEntry e = entry.getValue();
+				// Hash, size and time first since the path may contain anything but a newline
+				w.write(e.hash + "\t" + e.size + "\t" + e.modified + "\t" + entry.getKey() + "\n");
+			}
+			w.flush();
+		} catch (IOException e) {
+			writer.failWrite(out);
+			throw e;
+		}
+		writer.finishWrite(out);
+		mIndexDirty = false;
+	}
+	
+	/**
+	 * @return The number of bytes actually copied
+	 */
+	public long getBytesCopied() {
+		return mBytesCopied;
+	}
+	
+	/**
+	 * @return The number of bytes not copied because the destination already had the same content
+	 */
+	public long getBytesSkipped() {
+		return mBytesSkipped;
+	}
+	
+	/**
+	 * @return The number of files actually copied
+	 */
+	public int getFilesCopied() {
+		return mFilesCopied;
+	}
+	
+	/**
+	 * @return The number of files not copied because the destination already had the same content
+	 */
+	public int getFilesSkipped() {
+		return mFilesSkipped;
+	}
+	
+	/**
+	 * @return The number of milliseconds spent copying files
+	 */
+	public long getCopyMillis() {
+		return mCopyMillis;
+	}
+	
+	/**
+	 * @return The number of milliseconds spent hashing files that weren't in the index
+	 */
+	public long getHashMillis() {
+		return mHashMillis;
+	}
+	
+	/**
+	 * Estimate how much time skipping copies saved: the skipped bytes at the copy speed measured so far,
+	 * less the time spent hashing. Can be negative, e.g. on a first import where everything is hashed and
+	 * nothing skipped.
+	 * @return The estimated number of milliseconds saved, or 0 if nothing has been copied yet to measure the
+	 * copy speed from
+	 */
+	public long getEstimatedMillisSaved() {
+		if (mBytesCopied == 0) {
+			return 0;
+		}
+		return Math.round((double) mBytesSkipped * mCopyMillis / mBytesCopied) - mHashMillis;
+	}
+	
+	/**
+	 * @return The number of bytes that had to be read to hash files not in the index
+	 */
+	public long getBytesHashed() {
+		return mBytesHashed;
+	}
+	
+	/**
+	 * @return The number of hashes that came from the index without reading the file
+	 */
+	public int getIndexHits() {
+		return mIndexHits;
+	}
+	
+	private void loadIndex() {
+		if (mIndex != null) {
+			return;
+		}
+		mIndex = new HashMap<String, IndexEntry>();
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(mIndexFile), BitConverter.UTF_8));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split("\t", 4);
+				if (parts.length != 4) {
+					continue;
+				}
+				try {
+					mIndex.put(parts[3], new IndexEntry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), parts[0]));
+				} catch (NumberFormatException e) {
+					// Skip the corrupt line
+				}
+			}
+		} catch (FileNotFoundException e) {
+			// No index yet
+		} catch (IOException e) {
+			Twig.warning(TAG, "Couldn't read hash index: " + e.getMessage());
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					Twig.printStackTrace(e);
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Drop index entries for files that no longer exist or have changed since they were hashed
+	 */
+	private void pruneIndex() {
+		Iterator<Map.Entry<String, IndexEntry>> it = mIndex.entrySet().iterator();
+		while (it.hasNext()) {
+			Map.Entry<String, IndexEntry> entry = it.next();
+			File file = new File(entry.getKey());
+			if (entry.getValue().size != file.length() || entry.getValue().modified != file.lastModified()) {
+				it.remove();
+				mIndexDirty = true;
+			}
+		}
+	}
+	
+	private IndexEntry lookup(File file) {
+		IndexEntry entry = mIndex.get(file.getAbsolutePath());
+		if (entry != null && entry.size == file.length() && entry.modified == file.lastModified()) {
+			return entry;
+		}
+		return null;
+	}
+	
+	private void put(File file, String hash) {
+		mIndex.put(file.getAbsolutePath(), new IndexEntry(file.length(), file.lastModified(), hash));
+		mIndexDirty = true;
+	}
+	
+	private String getHash(File file) throws IOException {
+		IndexEntry entry = lookup(file);
+		if (entry != null) {
+			mIndexHits++;
+			return entry.hash;
+		}
+		final long start = SystemClock.uptimeMillis();
+		String hash = hash(file);
+		mHashMillis += SystemClock.uptimeMillis() - start;
+		put(file, hash);
+		return hash;
+	}
+	
+	private String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance(HASH_ALGORITHM);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IOException(HASH_ALGORITHM + " isn't available");
+		}
+		FileInputStream in = new FileInputStream(file);
+		byte[] buff = BufferPool.acquireBytes();
+		try {
+			int len;
+			while ((len = in.read(buff)) != -1) {
+				digest.update(buff, 0, len);
+				mBytesHashed += len;
+			}
+		} finally {
+			BufferPool.release(buff);
+			in.close();
+		}
+		return Hex.encodeToString(digest.digest());
+	}
+	
+	private static class IndexEntry {
+		final long size;
+		final long modified;
+		final String hash;
+		
+		IndexEntry(long size, long modified, String hash) {
+			this.size = size;
+			this.modified = modified;
+			this.hash = hash;
+		}
+	}
+}
@@ -0,0 +1,489 @@
+package com.nickstephen.lib.misc;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * An instance based version of {@link BitConverter} with an explicit byte order. Use either
+ * {@link #BIG_ENDIAN} (the same order as the static BitConverter methods) or {@link #LITTLE_ENDIAN}.
+ * The byte array methods don't allocate and don't bounds check beyond what the VM does on array access,
+ * so validate records first with {@link BitConverter#validateRange(byte[], int, int)} if needed.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public abstract class EndianBitConverter {
+	/**
+	 * Converter that stores the most significant byte first
+	 */
+	public static final EndianBitConverter BIG_ENDIAN = new BigEndian();
+	/**
+	 * Converter that stores the least significant byte first
+	 */
+	public static final EndianBitConverter LITTLE_ENDIAN = new LittleEndian();
+	
+	/**
+	 * Get the converter for a particular byte order
+	 * @param order The byte order
+	 * @return The matching converter
+	 */
+	public static EndianBitConverter forOrder(ByteOrder order) {
+		return order == ByteOrder.LITTLE_ENDIAN ? LITTLE_ENDIAN : BIG_ENDIAN;
+	}
+	
+	/**
+	 * Package-private so the only implementations are the two constants above
+	 */
+	EndianBitConverter() {}
+	
+	/**
+	 * @return The byte order used by this converter
+	 */
+	public abstract ByteOrder getOrder();
+	
+	/**
+	 * Wrap a region of a byte array in a ByteBuffer that uses this converter's byte order. The
+	 * buffer's typed views (e.g. {@link ByteBuffer#asIntBuffer()}) will also use that order.
+	 * @param bytes The array to wrap
+	 * @param off The index of the first byte in the buffer
+	 * @param len The number of bytes in the buffer
+	 * @return A buffer over the region, positioned at off
+	 */
+	public ByteBuffer wrap(byte[] bytes, int off, int len) {
+		return ByteBuffer.wrap(bytes, off, len).order(getOrder());
+	}
+	
+	/**
+	 * Write a short into an existing array
+	 * @param dst The array to write into (must have at least 2 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public abstract int putInt16(byte[] dst, int off, short x);
+	
+	/**
+	 * Write a char into an existing array
+	 * @param dst The array to write into (must have at least 2 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public int putChar(byte[] dst, int off, char x) {
+		return putInt16(dst, off, (short) x);
+	}
+	
+	/**
+	 * Write an int into an existing array
+	 * @param dst The array to write into (must have at least 4 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public abstract int putInt32(byte[] dst, int off, int x);
+	
+	/**
+	 * Write a long into an existing array
+	 * @param dst The array to write into (must have at least 8 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public abstract int putInt64(byte[] dst, int off, long x);
+	
+	/**
+	 * Write a float into an existing array
+	 * @param dst The array to write into (must have at least 4 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public int putSingle(byte[] dst, int off, float x) {
+		return putInt32(dst, off, Float.floatToRawIntBits(x));
+	}
+	
+	/**
+	 * Write a double into an existing array
+	 * @param dst The array to write into (must have at least 8 bytes from off)
+	 * @param off The index to start writing at
+	 * @param x The value to be written
+	 * @return The index directly after the written value
+	 */
+	public int putDouble(byte[] dst, int off, double x) {
+		return putInt64(dst, off, Double.doubleToRawLongBits(x));
+	}
+	
+	/**
+	 * Read a short from an array
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding short value
+	 */
+	public abstract short readInt16(byte[] bytes, int index);
+	
+	/**
+	 * Read a char from an array
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding char value
+	 */
+	public char readChar(byte[] bytes, int index) {
+		return (char) readInt16(bytes, index);
+	}
+	
+	/**
+	 * Read an int from an array
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding int value
+	 */
+	public abstract int readInt32(byte[] bytes, int index);
+	
+	/**
+	 * Read a long from an array
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding long value
+	 */
+	public abstract long readInt64(byte[] bytes, int index);
+	
+	/**
+	 * Read a float from an array
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding float value
+	 */
+	public float readSingle(byte[] bytes, int index) {
+		return Float.intBitsToFloat(readInt32(bytes, index));
+	}
+	
+	/**
+	 * Read a double from an array
+	 * @param bytes The array to read from
+	 * @param index The index of the first byte of the value
+	 * @return The corresponding double value
+	 */
+	public double readDouble(byte[] bytes, int index) {
+		return Double.longBitsToDouble(readInt64(bytes, index));
+	}
+	
+	/**
+	 * Convert a region of a short array into bytes in a single pass
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 2 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public int toBytes(short[] src, int off, int len, byte[] dst, int dstOff) {
+		wrap(dst, dstOff, len * 2).asShortBuffer().put(src, off, len);
+		return dstOff + len * 2;
+	}
+	
+	/**
+	 * Convert a region of bytes into a short array in a single pass
+	 * @param src The bytes to convert (must have at least len * 2 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public int fromBytes(byte[] src, int srcOff, short[] dst, int dstOff, int len) {
+		wrap(src, srcOff, len * 2).asShortBuffer().get(dst, dstOff, len);
+		return srcOff + len * 2;
+	}
+	
+	/**
+	 * Convert a region of a char array into bytes in a single pass
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 2 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public int toBytes(char[] src, int off, int len, byte[] dst, int dstOff) {
+		wrap(dst, dstOff, len * 2).asCharBuffer().put(src, off, len);
+		return dstOff + len * 2;
+	}
+	
+	/**
+	 * Convert a region of bytes into a char array in a single pass
+	 * @param src The bytes to convert (must have at least len * 2 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public int fromBytes(byte[] src, int srcOff, char[] dst, int dstOff, int len) {
+		wrap(src, srcOff, len * 2).asCharBuffer().get(dst, dstOff, len);
+		return srcOff + len * 2;
+	}
+	
+	/**
+	 * Convert a region of a int array into bytes in a single pass
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 4 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public int toBytes(int[] src, int off, int len, byte[] dst, int dstOff) {
+		wrap(dst, dstOff, len * 4).asIntBuffer().put(src, off, len);
+		return dstOff + len * 4;
+	}
+	
+	/**
+	 * Convert a region of bytes into a int array in a single pass
+	 * @param src The bytes to convert (must have at least len * 4 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public int fromBytes(byte[] src, int srcOff, int[] dst, int dstOff, int len) {
+		wrap(src, srcOff, len * 4).asIntBuffer().get(dst, dstOff, len);
+		return srcOff + len * 4;
+	}
+	
+	/**
+	 * Convert a region of a long array into bytes in a single pass
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 8 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public int toBytes(long[] src, int off, int len, byte[] dst, int dstOff) {
+		wrap(dst, dstOff, len * 8).asLongBuffer().put(src, off, len);
+		return dstOff + len * 8;
+	}
+	
+	/**
+	 * Convert a region of bytes into a long array in a single pass
+	 * @param src The bytes to convert (must have at least len * 8 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public int fromBytes(byte[] src, int srcOff, long[] dst, int dstOff, int len) {
+		wrap(src, srcOff, len * 8).asLongBuffer().get(dst, dstOff, len);
+		return srcOff + len * 8;
+	}
+	
+	/**
+	 * Convert a region of a float array into bytes in a single pass
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 4 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public int toBytes(float[] src, int off, int len, byte[] dst, int dstOff) {
+		wrap(dst, dstOff, len * 4).asFloatBuffer().put(src, off, len);
+		return dstOff + len * 4;
+	}
+	
+	/**
+	 * Convert a region of bytes into a float array in a single pass
+	 * @param src The bytes to convert (must have at least len * 4 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public int fromBytes(byte[] src, int srcOff, float[] dst, int dstOff, int len) {
+		wrap(src, srcOff, len * 4).asFloatBuffer().get(dst, dstOff, len);
+		return srcOff + len * 4;
+	}
+	
+	/**
+	 * Convert a region of a double array into bytes in a single pass
+	 * @param src The values to convert
+	 * @param off The index of the first value in src
+	 * @param len The number of values to convert
+	 * @param dst The array to write into (must have at least len * 8 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written value
+	 */
+	public int toBytes(double[] src, int off, int len, byte[] dst, int dstOff) {
+		wrap(dst, dstOff, len * 8).asDoubleBuffer().put(src, off, len);
+		return dstOff + len * 8;
+	}
+	
+	/**
+	 * Convert a region of bytes into a double array in a single pass
+	 * @param src The bytes to convert (must have at least len * 8 bytes from srcOff)
+	 * @param srcOff The index in src to start reading from
+	 * @param dst The array to write the values into
+	 * @param dstOff The index of the first value in dst
+	 * @param len The number of values to convert
+	 * @return The index in src directly after the last read value
+	 */
+	public int fromBytes(byte[] src, int srcOff, double[] dst, int dstOff, int len) {
+		wrap(src, srcOff, len * 8).asDoubleBuffer().get(dst, dstOff, len);
+		return srcOff + len * 8;
+	}
+	
+	/**
+	 * Convert a char into a new 2 byte array in this converter's byte order
+	 * @param x The value to convert
+	 * @return A new array containing the bytes
+	 */
+	public byte[] getBytes(char x) {
+		byte[] ret = new byte[2];
+		putChar(ret, 0, x);
+		return ret;
+	}
+	
+	/**
+	 * Convert a short into a new 2 byte array in this converter's byte order
+	 * @param x The value to convert
+	 * @return A new array containing the bytes
+	 */
+	public byte[] getBytes(short x) {
+		byte[] ret = new byte[2];
+		putInt16(ret, 0, x);
+		return ret;
+	}
+	
+	/**
+	 * Convert a int into a new 4 byte array in this converter's byte order
+	 * @param x The value to convert
+	 * @return A new array containing the bytes
+	 */
+	public byte[] getBytes(int x) {
+		byte[] ret = new byte[4];
+		putInt32(ret, 0, x);
+		return ret;
+	}
+	
+	/**
+	 * Convert a long into a new 8 byte array in this converter's byte order
+	 * @param x The value to convert
+	 * @return A new array containing the bytes
+	 */
+	public byte[] getBytes(long x) {
+		byte[] ret = new byte[8];
+		putInt64(ret, 0, x);
+		return ret;
+	}
+	
+	/**
+	 * Convert a float (its raw IEEE 754 bits) into a new 4 byte array in this converter's byte order
+	 * @param x The value to convert
+	 * @return A new array containing the bytes
+	 */
+	public byte[] getBytes(float x) {
+		return getBytes(Float.floatToRawIntBits(x));
+	}
+	
+	/**
+	 * Convert a double (its raw IEEE 754 bits) into a new 8 byte array in this converter's byte order
+	 * @param x The value to convert
+	 * @return A new array containing the bytes
+	 */
+	public byte[] getBytes(double x) {
+		return getBytes(Double.doubleToRawLongBits(x));
+	}
+	
+	private static final class BigEndian extends EndianBitConverter {
+		@Override
+		public ByteOrder getOrder() {
+			return ByteOrder.BIG_ENDIAN;
+		}
+
+		@Override
+		public int putInt16(byte[] dst, int off, short x) {
+			return BitConverter.putInt16(dst, off, x);
+		}
+
+		@Override
+		public int putInt32(byte[] dst, int off, int x) {
+			return BitConverter.putInt32(dst, off, x);
+		}
+
+		@Override
+		public int putInt64(byte[] dst, int off, long x) {
+			return BitConverter.putInt64(dst, off, x);
+		}
+
+		@Override
+		public short readInt16(byte[] bytes, int index) {
+			return BitConverter.readInt16(bytes, index);
+		}
+
+		@Override
+		public int readInt32(byte[] bytes, int index) {
+			return BitConverter.readInt32(bytes, index);
+		}
+
+		@Override
+		public long readInt64(byte[] bytes, int index) {
+			return BitConverter.readInt64(bytes, index);
+		}
+	}
+	
+	private static final class LittleEndian extends EndianBitConverter {
+		@Override
+		public ByteOrder getOrder() {
+			return ByteOrder.LITTLE_ENDIAN;
+		}
+
+		@Override
+		public int putInt16(byte[] dst, int off, short x) {
+			dst[off] = (byte) x;
+			dst[off + 1] = (byte) (x >>> 8);
+			return off + 2;
+		}
+
+		@Override
+		public int putInt32(byte[] dst, int off, int x) {
+			dst[off] = (byte) x;
+			dst[off + 1] = (byte) (x >>> 8);
+			dst[off + 2] = (byte) (x >>> 16);
+			dst[off + 3] = (byte) (x >>> 24);
+			return off + 4;
+		}
+
+		@Override
+		public int putInt64(byte[] dst, int off, long x) {
+			dst[off] = (byte) x;
+			dst[off + 1] = (byte) (x >>> 8);
+			dst[off + 2] = (byte) (x >>> 16);
+			dst[off + 3] = (byte) (x >>> 24);
+			dst[off + 4] = (byte) (x >>> 32);
+			dst[off + 5] = (byte) (x >>> 40);
+			dst[off + 6] = (byte) (x >>> 48);
+			dst[off + 7] = (byte) (x >>> 56);
+			return off + 8;
+		}
+
+		@Override
+		public short readInt16(byte[] bytes, int index) {
+			return (short) ((0xff & bytes[index]) | (0xff & bytes[index + 1]) << 8);
+		}
+
+		@Override
+		public int readInt32(byte[] bytes, int index) {
+			return (0xff & bytes[index]) | (0xff & bytes[index + 1]) << 8 | 
+					(0xff & bytes[index + 2]) << 16 | (0xff & bytes[index + 3]) << 24;
+		}
+
+		@Override
+		public long readInt64(byte[] bytes, int index) {
+			return (long)(0xff & bytes[index]) | (long)(0xff & bytes[index + 1]) << 8 | (long)(0xff & bytes[index + 2]) << 16 | 
+					(long)(0xff & bytes[index + 3]) << 24 | (long)(0xff & bytes[index + 4]) << 32 | (long)(0xff & bytes[index + 5]) << 40 | 
+					(long)(0xff & bytes[index + 6]) << 48 | (long)(0xff & bytes[index + 7]) << 56;
+		}
+	}
+}
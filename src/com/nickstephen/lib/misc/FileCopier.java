@@ -0,0 +1,169 @@
+package com.nickstephen.lib.misc;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import com.nickstephen.lib.Twig;
+import com.nickstephen.lib.http.IWriteListener;
+import com.nickstephen.lib.http.ThrottledWriteListener;
+
+/**
+ * Copies files using FileChannel.transferTo, which lets the kernel move the data without it passing
+ * through the Java heap where supported. If transferTo can't make progress the copy falls back to a
+ * large direct buffer. Copies are done in chunks so progress can be reported and the copy cancelled
+ * (from any thread) part way through. Streams are always closed, even on failure.
+ * <p>
+ * An instance can be reused for any number of copies but only copies one file at a time.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class FileCopier {
+	private static final String TAG = "FileCopier";
+	/**
+	 * The maximum number of bytes moved per transferTo call, which bounds how often progress
+	 * and cancellation are checked
+	 */
+	private static final long TRANSFER_CHUNK = 8 * 1024 * 1024;
+	private static final int DIRECT_BUFFER_SIZE = 256 * 1024;
+	
+	private final IWriteListener mListener;
+	private final int mFlags;
+	private final long mProgressBytes;
+	private final long mProgressMillis;
+	private ByteBuffer mDirectBuffer;
+	private volatile boolean mCancelled = false;
+	
+	/**
+	 * Create a new copier without progress reporting
+	 */
+	public FileCopier() {
+		this(null, 0, 0, 0);
+	}
+	
+	/**
+	 * Create a new copier that reports progress
+	 * @param listener Listener for progress updates (may be null). Given each file's length before it's copied.
+	 * @param flags Flags passed through to the listener
+	 * @param progressBytes The minimum number of bytes between progress updates (<= 0 for no limit)
+	 * @param progressMillis The minimum number of milliseconds between progress updates (<= 0 for no limit)
+	 */
+	public FileCopier(IWriteListener listener, int flags, long progressBytes, long progressMillis) {
+		mListener = listener;
+		mFlags = flags;
+		mProgressBytes = progressBytes;
+		mProgressMillis = progressMillis;
+	}
+	
+	/**
+	 * Cancel the copy in progress (and any later ones). Safe to call from any thread.
+	 */
+	public void cancel() {
+		mCancelled = true;
+	}
+	
+	/**
+	 * @return True if {@link #cancel()} has been called
+	 */
+	public boolean isCancelled() {
+		return mCancelled;
+	}
+	
+	/**
+	 * Copy a file, overwriting the destination if it exists
+	 * @param source The file to copy
+	 * @param destination The file to copy to
+	 * @return True if the copy completed, false if it was cancelled (the partial destination is deleted)
+	 * @throws IOException If either file can't be opened or the copy fails
+	 */
+	public boolean copy(File source, File destination) throws IOException {
+		if (mCancelled) {
+			return false;
+		}
+		
+		FileInputStream fsin = null;
+		FileOutputStream fsout = null;
+		boolean completed = false;
+		try {
+			fsin = new FileInputStream(source);
+			fsout = new FileOutputStream(destination);
+			completed = copy(fsin.getChannel(), fsout.getChannel());
+		} finally {
+			closeQuietly(fsin);
+			closeQuietly(fsout);
+			if (!completed && fsout != null && !destination.delete()) {
+				Twig.warning(TAG, "Couldn't delete partial copy " + destination);
+			}
+		}
+		return completed;
+	}
+	
+	private boolean copy(FileChannel in, FileChannel out) throws IOException {
+		final long size = in.size();
+		ThrottledWriteListener listener = null;
+		if (mListener != null) {
+			listener = new ThrottledWriteListener(mListener, mProgressBytes, mProgressMillis);
+			listener.setLength(size);
+		}
+		
+		long position = 0;
+		while (position < size) {
+			if (mCancelled) {
+				return false;
+			}
+			long moved = in.transferTo(position, Math.min(TRANSFER_CHUNK, size - position), out);
+			if (moved <= 0) {
+				// Some file systems/ kernels won't transfer, do the rest by hand
+				return bufferedCopy(in, out, position, listener);
+			}
+			position += moved;
+			if (listener != null) {
+				listener.registerWrite(position, mFlags);
+			}
+		}
+		if (listener != null) {
+			listener.finish(position, mFlags);
+		}
+		return true;
+	}
+	
+	private boolean bufferedCopy(FileChannel in, FileChannel out, long position, ThrottledWriteListener listener) throws IOException {
+		if (mDirectBuffer == null) {
+			mDirectBuffer = ByteBuffer.allocateDirect(DIRECT_BUFFER_SIZE);
+		}
+		final ByteBuffer buff = mDirectBuffer;
+		in.position(position);
+		out.position(position);
+		buff.clear();
+		while (in.read(buff) != -1) {
+			if (mCancelled) {
+				return false;
+			}
+			buff.flip();
+			while (buff.hasRemaining()) {
+				position += out.write(buff);
+			}
+			buff.clear();
+			if (listener != null) {
+				listener.registerWrite(position, mFlags);
+			}
+		}
+		if (listener != null) {
+			listener.finish(position, mFlags);
+		}
+		return true;
+	}
+	
+	private static void closeQuietly(java.io.Closeable c) {
+		if (c != null) {
+			try {
+				c.close();
+			} catch (IOException e) {
+				Twig.printStackTrace(e);
+			}
+		}
+	}
+}
@@ -1,9 +1,11 @@
 package com.nickstephen.lib.misc;
 
-import java.io.FileInputStream;
+import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 import android.content.Context;
 import android.database.Cursor;
@@ -15,21 +17,39 @@ public class FileIO {
 	
 	/**
 	 * Copy a file. Does not throw exceptions, instead check the return value.
+	 * See {@link FileCopier} for copies with progress reporting or cancellation.
 	 * @param source The source file to copy
 	 * @param destination The destination file to copy to
 	 * @return 0 on success, < 0 for various exceptions
 	 */
 	public static int bufferedCopy(String source, String destination) {
 		try {
-			FileOutputStream fsout = new FileOutputStream(destination);
-			FileInputStream fsin = new FileInputStream(source);
-			byte[] buff = new byte[1024];
-			int len;
-			while ((len = fsin.read(buff)) > 0) {
-				fsout.write(buff, 0, len);
-			}
-			fsout.close();
-			fsin.close();
+			new FileCopier().copy(new File(source), new File(destination));
+		} catch (FileNotFoundException e) {
+			e.printStackTrace();
+			return -2;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return -3;
+		} catch (Exception e) {
+			e.printStackTrace();
+			return -1;
+		}
+		
+		return 0;
+	}
+	
+	/**
+	 * Atomically replace a file's content, so it's never left half written. Does not throw exceptions,
+	 * instead check the return value. See {@link AtomicFileWriter} to stream larger content and
+	 * {@link GroupCommitWriter} for many small writes.
+	 * @param destination The file to write
+	 * @param data The new content
+	 * @return 0 on success, < 0 for various exceptions
+	 */
+	public static int atomicWrite(String destination, byte[] data) {
+		try {
+			new AtomicFileWriter(new File(destination)).write(data, 0, data.length);
 		} catch (FileNotFoundException e) {
 			e.printStackTrace();
 			return -2;
@@ -44,6 +64,50 @@ public class FileIO {
 		return 0;
 	}
 	
+	/**
+	 * Memory map a whole file for reading. The data is paged in on demand by the OS instead of being
+	 * read onto the heap. Files larger than 2 GB have to be mapped in pieces, see
+	 * {@link #mapReadOnly(String, long, long)} or {@link MappedFileReader}.
+	 * @param path The file to map
+	 * @return A read-only buffer over the whole file
+	 * @throws IOException If the file can't be opened or mapped, or is larger than 2 GB
+	 */
+	public static MappedByteBuffer mapReadOnly(String path) throws IOException {
+		return mapReadOnly(path, 0, -1);
+	}
+	
+	/**
+	 * Memory map a window of a file for reading. The mapping stays valid after this returns even
+	 * though the file itself is closed.
+	 * @param path The file to map
+	 * @param position The position in the file the window starts at
+	 * @param size The size of the window in bytes (at most 2 GB), or < 0 for the rest of the file
+	 * @return A read-only buffer over the window
+	 * @throws IOException If the file can't be opened or mapped
+	 */
+	public static MappedByteBuffer mapReadOnly(String path, long position, long size) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(path, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			if (size < 0) {
+				size = channel.size() - position;
+			}
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Can't map more than 2 GB at once, use MappedFileReader instead");
+			}
+			return channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+		} finally {
+			file.close();
+		}
+	}
+	
+	/**
+	 * Get the file path of a MediaStore content URI. Runs a query every call, so use a
+	 * {@link MediaPathResolver} when resolving lots of URIs.
+	 * @param context A context to query with
+	 * @param uri The content URI
+	 * @return The path of the file
+	 */
 	public static String getRealPathFromUri(Context context, Uri uri) {
 		Cursor cursor = null;
 		try { 
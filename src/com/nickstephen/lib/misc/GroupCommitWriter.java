@@ -0,0 +1,197 @@
+package com.nickstephen.lib.misc;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+import com.nickstephen.lib.Twig;
+
+/**
+ * Atomically writes lots of small files from many threads with group commit. Writes that arrive
+ * within a short window are gathered into one batch which a single background thread commits in three
+ * passes: every file in the batch is written to its temporary file, then they're all synced back to back,
+ * then they're all renamed into place (see {@link AtomicFileWriter}). Repeated writes to the same file within
+ * a batch are coalesced so only the newest content is written and synced.
+ * <p>
+ * What that costs: a batch of n distinct files is n fsyncs, one per file, since Java has nothing coarser
+ * like syncfs. What it saves over each caller writing its own file is the interleaving: the syncs run
+ * back to back with all the batch's data already in the page cache, and no sync waits on another file's
+ * rename, so the batch takes one round of device flushes instead of n callers queueing for them.
+ * <p>
+ * {@link #commit(File, byte[])} blocks until the batch containing the write has been synced and renamed,
+ * so callers get the same guarantee as writing the file themselves with {@link AtomicFileWriter}, including
+ * its caveat about the rename.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class GroupCommitWriter {
+	private final long mDelayMillis;
+	private final int mMaxBatch;
+	private Batch mPending = new Batch();
+	private Thread mThread;
+	
+	/**
+	 * Create a new writer
+	 * @param delayMillis How long to wait for more writes after the first write of a batch arrives
+	 * @param maxBatch Commit a batch straight away once it has this many files in it
+	 */
+	public GroupCommitWriter(long delayMillis, int maxBatch) {
+		mDelayMillis = delayMillis;
+		mMaxBatch = Math.max(1, maxBatch);
+	}
+	
+	/**
+	 * Atomically replace a file's content, blocking until it's been committed
+	 * @param target The file to write
+	 * @param data The new content. Must not be modified until this returns.
+	 * @throws IOException If the write fails. The target is left untouched.
+	 * @throws InterruptedException If the calling thread is interrupted while waiting. The write may
+	 * or may not still happen.
+	 */
+	public void commit(File target, byte[] data) throws IOException, InterruptedException {
+		Batch batch;
+		synchronized (this) {
+			batch = mPending;
+			batch.writes.put(target, data);
+			if (mThread == null) {
+				mThread = new Thread(new Runnable() {
+					@Override
+					public void run() {
+						commitLoop();
+					}
+				}, "GroupCommitWriter");
+				mThread.setDaemon(true);
+				mThread.start();
+			}
+			notifyAll();
+		}
+		
+		batch.done.await();
+		IOException e = batch.errors.get(target);
+		if (e != null) {
+			throw e;
+		}
+	}
+	
+	private void commitLoop() {
+		while (true) {
+			Batch batch;
+			try {
+				synchronized (this) {
+					while (mPending.writes.isEmpty()) {
+						wait();
+					}
+					final long deadline = System.currentTimeMillis() + mDelayMillis;
+					long remaining;
+					while (mPending.writes.size() < mMaxBatch && (remaining = deadline - System.currentTimeMillis()) > 0) {
+						wait(remaining);
+					}
+					batch = mPending;
+					mPending = new Batch();
+				}
+			} catch (InterruptedException e) {
+				return;
+			}
+			try {
+				batch.commit();
+			} catch (RuntimeException e) {
+				// The batch's writers have been told it failed; keep going for the next one
+				Twig.printStackTrace(e);
+			}
+		}
+	}
+	
+	private static class Batch {
+		final Map<File, byte[]> writes = new LinkedHashMap<File, byte[]>();
+		final Map<File, IOException> errors = new HashMap<File, IOException>();
+		final CountDownLatch done = new CountDownLatch(1);
+		
+		/**
+		 * Write, sync and rename every file in the batch, one pass each, then release the waiting callers. If a
+		 * RuntimeException gets out, every write that hadn't been committed yet is abandoned and
+		 * reported as failed before it's rethrown.
+		 */
+		void commit() {
+			List<AtomicFileWriter> writers = new ArrayList<AtomicFileWriter>(writes.size());
+			List<OutputStream> streams = new ArrayList<OutputStream>(writes.size());
+			int finished = 0;
+			try {
+				for (Map.Entry<File, byte[]> write : writes.entrySet()) {
+					AtomicFileWriter writer = new AtomicFileWriter(write.getKey());
+					OutputStream out = null;
+					try {
+						out = writer.startWrite();
+						writers.add(writer);
+						streams.add(out);
+						out.write(write.getValue());
+					} catch (IOException e) {
+						if (out != null) {
+							writers.remove(writers.size() - 1);
+							streams.remove(streams.size() - 1);
+							writer.failWrite(out);
+						}
+						errors.put(write.getKey(), e);
+					}
+				}
+				// Data for the whole batch is in the page cache now, so the syncs can go back to back without
+				// any renames in between
+				for (int i = 0; i < writers.size(); i++) {
+					try {
+						writers.get(i).sync(streams.get(i));
+					} catch (IOException e) {
+						// Already abandoned by sync()
+						streams.set(i, null);
+						errors.put(writers.get(i).getTarget(), e);
+					}
+				}
+				for (; finished < writers.size(); finished++) {
+					OutputStream out = streams.get(finished);
+					if (out == null) {
+						continue;
+					}
+					try {
+						writers.get(finished).finishWrite(out, false);
+					} catch (IOException e) {
+						errors.put(writers.get(finished).getTarget(), e);
+					}
+				}
+			} catch (RuntimeException e) {
+				fail(writers, streams, finished, e);
+				throw e;
+			} finally {
+				done.countDown();
+			}
+		}
+		
+		/**
+		 * Abandon the writes that were started but not finished and report every write that didn't
+		 * get committed as failed
+		 */
+		private void fail(List<AtomicFileWriter> writers, List<OutputStream> streams, int finished, RuntimeException cause) {
+			Set<File> committed = new HashSet<File>();
+			for (int i = 0; i < finished; i++) {
+				committed.add(writers.get(i).getTarget());
+			}
+			for (int i = finished; i < writers.size(); i++) {
+				if (streams.get(i) != null) {
+					writers.get(i).failWrite(streams.get(i));
+				}
+			}
+			for (File target : writes.keySet()) {
+				if (!committed.contains(target) && !errors.containsKey(target)) {
+					IOException e = new IOException("Batch commit failed");
+					e.initCause(cause);
+					errors.put(target, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package com.nickstephen.lib.misc;
+
+/**
+ * Table driven hexadecimal encoding and decoding. Encoding looks up both chars of a byte at once
+ * from a 512 entry table (one per case) and the encode methods can write into an existing char array
+ * so large or repeated encodes don't have to allocate.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class Hex {
+	/**
+	 * Pairs of lower case hex chars for every byte value, indexed by (b & 0xFF) * 2
+	 */
+	private static final char[] LOWER_TABLE = buildTable("0123456789abcdef");
+	/**
+	 * Pairs of upper case hex chars for every byte value, indexed by (b & 0xFF) * 2
+	 */
+	private static final char[] UPPER_TABLE = buildTable("0123456789ABCDEF");
+	/**
+	 * The value of each ASCII hex char (either case) or -1 if the char isn't a hex digit
+	 */
+	private static final byte[] DECODE_TABLE = new byte[128];
+	
+	static {
+		for (int i = 0; i < DECODE_TABLE.length; i++) {
+			DECODE_TABLE[i] = -1;
+		}
+		for (int i = 0; i < 10; i++) {
+			DECODE_TABLE['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			DECODE_TABLE['a' + i] = (byte) (10 + i);
+			DECODE_TABLE['A' + i] = (byte) (10 + i);
+		}
+	}
+	
+	private static char[] buildTable(String digits) {
+		char[] table = new char[512];
+		for (int i = 0; i < 256; i++) {
+			table[2 * i] = digits.charAt(i >>> 4);
+			table[2 * i + 1] = digits.charAt(i & 0x0F);
+		}
+		return table;
+	}
+	
+	private Hex() {}
+	
+	/**
+	 * Encode a region of a byte array as hex into an existing char array
+	 * @param src The bytes to encode
+	 * @param off The index of the first byte to encode
+	 * @param len The number of bytes to encode
+	 * @param dst The array to write into (must have at least len * 2 chars from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @param upperCase True for 'A'-'F', false for 'a'-'f'
+	 * @return The index in dst directly after the last written char
+	 */
+	public static int encode(byte[] src, int off, int len, char[] dst, int dstOff, boolean upperCase) {
+		final char[] table = upperCase ? UPPER_TABLE : LOWER_TABLE;
+		final int end = off + len;
+		for (int i = off; i < end; i++) {
+			final int v = (src[i] & 0xFF) << 1;
+			dst[dstOff++] = table[v];
+			dst[dstOff++] = table[v + 1];
+		}
+		return dstOff;
+	}
+	
+	/**
+	 * Encode a region of a byte array as a hex string
+	 * @param src The bytes to encode
+	 * @param off The index of the first byte to encode
+	 * @param len The number of bytes to encode
+	 * @param upperCase True for 'A'-'F', false for 'a'-'f'
+	 * @return The hex string
+	 */
+	public static String encodeToString(byte[] src, int off, int len, boolean upperCase) {
+		final char[] chars = new char[len * 2];
+		encode(src, off, len, chars, 0, upperCase);
+		return new String(chars);
+	}
+	
+	/**
+	 * Encode a byte array as a lower case hex string
+	 * @param src The bytes to encode
+	 * @return The hex string
+	 */
+	public static String encodeToString(byte[] src) {
+		return encodeToString(src, 0, src.length, false);
+	}
+	
+	/**
+	 * Decode a region of hex chars (either case) into an existing byte array
+	 * @param src The hex chars to decode
+	 * @param off The index of the first char to decode
+	 * @param len The number of chars to decode (must be even)
+	 * @param dst The array to write into (must have at least len / 2 bytes from dstOff)
+	 * @param dstOff The index in dst to start writing at
+	 * @return The index in dst directly after the last written byte
+	 * @throws IllegalArgumentException If len is odd or a char isn't a hex digit
+	 */
+	public static int decode(CharSequence src, int off, int len, byte[] dst, int dstOff) {
+		if ((len & 1) != 0) {
+			throw new IllegalArgumentException("Hex input must have an even number of chars");
+		}
+		final int end = off + len;
+		for (int i = off; i < end; i += 2) {
+			dst[dstOff++] = (byte) (digit(src.charAt(i), i) << 4 | digit(src.charAt(i + 1), i + 1));
+		}
+		return dstOff;
+	}
+	
+	/**
+	 * Decode a hex string (either case) into a new byte array
+	 * @param src The hex chars to decode
+	 * @return The decoded bytes
+	 * @throws IllegalArgumentException If the length is odd or a char isn't a hex digit
+	 */
+	public static byte[] decode(CharSequence src) {
+		final byte[] ret = new byte[src.length() / 2];
+		decode(src, 0, src.length(), ret, 0);
+		return ret;
+	}
+	
+	private static int digit(char c, int index) {
+		final int v = c < 128 ? DECODE_TABLE[c] : -1;
+		if (v < 0) {
+			throw new IllegalArgumentException("Invalid hex char '" + c + "' at index " + index);
+		}
+		return v;
+	}
+}
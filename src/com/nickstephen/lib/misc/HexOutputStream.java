@@ -0,0 +1,86 @@
+package com.nickstephen.lib.misc;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
+
+/**
+ * An OutputStream that hex encodes everything written to it and passes the chars on to a Writer.
+ * Encoding goes through a fixed size char buffer so arbitrarily large inputs can be streamed
+ * (e.g. for debug dumps) without building the whole string in memory.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class HexOutputStream extends OutputStream {
+	private static final int DEFAULT_BUFFER_SIZE = 4096;
+	
+	private final Writer mWriter;
+	private final boolean mUpperCase;
+	private final char[] mBuffer;
+	private final byte[] mSingle = new byte[1];
+	private int mCount;
+	
+	/**
+	 * Create a new lower case hex stream
+	 * @param writer The writer to pass the hex chars to
+	 */
+	public HexOutputStream(Writer writer) {
+		this(writer, false, DEFAULT_BUFFER_SIZE);
+	}
+	
+	/**
+	 * Create a new hex stream
+	 * @param writer The writer to pass the hex chars to
+	 * @param upperCase True for 'A'-'F', false for 'a'-'f'
+	 * @param bufferSize The size of the char buffer (at least 2)
+	 */
+	public HexOutputStream(Writer writer, boolean upperCase, int bufferSize) {
+		if (bufferSize < 2) {
+			throw new IllegalArgumentException("Buffer must hold at least 2 chars");
+		}
+		mWriter = writer;
+		mUpperCase = upperCase;
+		mBuffer = new char[bufferSize & ~1];
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		if (mCount == mBuffer.length) {
+			flushBuffer();
+		}
+		mSingle[0] = (byte) b;
+		mCount = Hex.encode(mSingle, 0, 1, mBuffer, mCount, mUpperCase);
+	}
+	
+	@Override
+	public void write(byte[] b, int off, int len) throws IOException {
+		while (len > 0) {
+			if (mCount == mBuffer.length) {
+				flushBuffer();
+			}
+			final int chunk = Math.min(len, (mBuffer.length - mCount) / 2);
+			mCount = Hex.encode(b, off, chunk, mBuffer, mCount, mUpperCase);
+			off += chunk;
+			len -= chunk;
+		}
+	}
+	
+	private void flushBuffer() throws IOException {
+		if (mCount > 0) {
+			mWriter.write(mBuffer, 0, mCount);
+			mCount = 0;
+		}
+	}
+	
+	@Override
+	public void flush() throws IOException {
+		flushBuffer();
+		mWriter.flush();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		flushBuffer();
+		mWriter.close();
+	}
+}
@@ -0,0 +1,240 @@
+package com.nickstephen.lib.misc;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads values out of a file through a read-only memory mapped window, using the same encoding as
+ * {@link BitConverter} (or little-endian if asked). Only the window is mapped at any one time and it
+ * slides along as reads move through the file, so files larger than 2 GB (the limit of a single
+ * mapping) can be read. The data is paged in by the OS on demand and never copied onto the Java heap.
+ * <p>
+ * A read that isn't entirely inside the current window (64 MB by default), including a value that
+ * straddles its end, remaps the window to start at the page holding the value, so values are never split
+ * across two mappings. That costs a remap, so reading through the file in order is much cheaper than
+ * jumping around it.
+ * <p>
+ * Not thread safe. Close the reader when done.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class MappedFileReader implements Closeable {
+	/**
+	 * The default size of the mapped window
+	 */
+	public static final int DEFAULT_WINDOW_SIZE = 64 * 1024 * 1024;
+	/**
+	 * Windows start on a multiple of this so they line up with pages
+	 */
+	private static final int ALIGNMENT = 4096;
+	
+	private final RandomAccessFile mFile;
+	private final FileChannel mChannel;
+	private final long mLength;
+	private final int mWindowSize;
+	private ByteOrder mOrder = ByteOrder.BIG_ENDIAN;
+	private MappedByteBuffer mWindow;
+	private long mWindowStart = 0;
+	private long mWindowEnd = 0;
+	
+	/**
+	 * Open a file with the default window size
+	 * @param file The file to read
+	 * @throws IOException If the file can't be opened
+	 */
+	public MappedFileReader(File file) throws IOException {
+		this(file, DEFAULT_WINDOW_SIZE);
+	}
+	
+	/**
+	 * Open a file
+	 * @param file The file to read
+	 * @param windowSize The size of the mapped window in bytes. Rounded up to a multiple of 4096 and must
+	 * be at least 8 bytes.
+	 * @throws IOException If the file can't be opened
+	 */
+	public MappedFileReader(File file, int windowSize) throws IOException {
+		if (windowSize < 8) {
+			throw new IllegalArgumentException("Window must be able to hold at least 8 bytes");
+		}
+		mWindowSize = (int) Math.min(Integer.MAX_VALUE & ~(ALIGNMENT - 1), ((long) windowSize + ALIGNMENT - 1) & ~(ALIGNMENT - 1));
+		mFile = new RandomAccessFile(file, "r");
+		mChannel = mFile.getChannel();
+		mLength = mChannel.size();
+	}
+	
+	/**
+	 * @return The length of the file in bytes
+	 */
+	public long length() {
+		return mLength;
+	}
+	
+	/**
+	 * @return The byte order multi-byte values are read with
+	 */
+	public ByteOrder getByteOrder() {
+		return mOrder;
+	}
+	
+	/**
+	 * Set the byte order multi-byte values are read with. Defaults to big-endian, the same as {@link BitConverter}.
+	 * @param order The new byte order
+	 */
+	public void setByteOrder(ByteOrder order) {
+		mOrder = order;
+		if (mWindow != null) {
+			mWindow.order(order);
+		}
+	}
+	
+	/**
+	 * Make sure the range [position, position + size) is inside the mapped window
+	 * @return The index of position inside the window
+	 */
+	private int window(long position, int size) throws IOException {
+		if (position < 0 || position + size > mLength) {
+			throw new IndexOutOfBoundsException("Read of " + size + " bytes at " + position + " is outside of the file");
+		}
+		if (position < mWindowStart || position + size > mWindowEnd) {
+			long start = position & ~(long) (ALIGNMENT - 1);
+			// Keep the whole value in the window even if it straddles the aligned boundary
+			long end = Math.min(mLength, Math.max(start + mWindowSize, position + size));
+			mWindow = mChannel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			mWindow.order(mOrder);
+			mWindowStart = start;
+			mWindowEnd = end;
+		}
+		return (int) (position - mWindowStart);
+	}
+	
+	/**
+	 * Read a single byte
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If position isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public byte readByte(long position) throws IOException {
+		final int index = window(position, 1);
+		return mWindow.get(index);
+	}
+	
+	/**
+	 * Read a boolean written as a single byte (anything but 0 is true)
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If position isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public boolean readBoolean(long position) throws IOException {
+		return readByte(position) != 0;
+	}
+	
+	/**
+	 * Read a short from 2 bytes in the reader's byte order
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If the range [position, position + 2) isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public short readInt16(long position) throws IOException {
+		final int index = window(position, 2);
+		return mWindow.getShort(index);
+	}
+	
+	/**
+	 * Read a char from 2 bytes in the reader's byte order
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If the range [position, position + 2) isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public char readChar(long position) throws IOException {
+		final int index = window(position, 2);
+		return mWindow.getChar(index);
+	}
+	
+	/**
+	 * Read an int from 4 bytes in the reader's byte order
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If the range [position, position + 4) isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public int readInt32(long position) throws IOException {
+		final int index = window(position, 4);
+		return mWindow.getInt(index);
+	}
+	
+	/**
+	 * Read a long from 8 bytes in the reader's byte order
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If the range [position, position + 8) isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public long readInt64(long position) throws IOException {
+		final int index = window(position, 8);
+		return mWindow.getLong(index);
+	}
+	
+	/**
+	 * Read a float from its 4 IEEE 754 bytes in the reader's byte order
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If the range [position, position + 4) isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public float readSingle(long position) throws IOException {
+		final int index = window(position, 4);
+		return mWindow.getFloat(index);
+	}
+	
+	/**
+	 * Read a double from its 8 IEEE 754 bytes in the reader's byte order
+	 * @param position The position in the file to read from
+	 * @return The value read
+	 * @throws IndexOutOfBoundsException If the range [position, position + 8) isn't inside the file
+	 * @throws IOException If the file can't be mapped
+	 */
+	public double readDouble(long position) throws IOException {
+		final int index = window(position, 8);
+		return mWindow.getDouble(index);
+	}
+	
+	/**
+	 * Copy bytes out of the file into an array. Ranges that cross the end of the window, or are larger
+	 * than it, are read a window at a time, remapping as they go.
+	 * @param position The position in the file to start reading from
+	 * @param dst The array to copy into
+	 * @param off The index in dst to start copying to
+	 * @param len The number of bytes to copy
+	 * @throws IndexOutOfBoundsException If the range [position, position + len) isn't inside the file. Bytes
+	 * before the end of the file may already have been copied into dst.
+	 * @throws IOException If the file can't be mapped
+	 */
+	public void readBytes(long position, byte[] dst, int off, int len) throws IOException {
+		while (len > 0) {
+			final int chunk = (int) Math.min(len, mWindowSize - (position & (ALIGNMENT - 1)));
+			final int index = window(position, chunk);
+			// There's no absolute bulk get, but the window's position isn't used for anything else
+			mWindow.position(index);
+			mWindow.get(dst, off, chunk);
+			position += chunk;
+			off += chunk;
+			len -= chunk;
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		mWindow = null;
+		mFile.close();
+	}
+}
@@ -0,0 +1,258 @@
+package com.nickstephen.lib.misc;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.provider.MediaStore;
+
+/**
+ * Resolves MediaStore content URIs to file paths in batches, with an LRU cache of the results.
+ * URIs of the form <code>content://media/.../media/&lt;id&gt;</code> are grouped by collection and looked up with
+ * one <code>_id IN (...)</code> query per chunk instead of a query each, which is what
+ * {@link FileIO#getRealPathFromUri(Context, Uri)} does. The cache is cleared whenever the MediaStore
+ * reports a change to any of its media.
+ * <p>
+ * Call {@link #release()} when done to stop listening for changes. Thread safe.
+ * @author Nick Stephen (a.k.a saltisgood)
+ *
+ */
+public class MediaPathResolver {
+	/**
+	 * Maximum number of ids per query. SQLite allows 999 parameters per statement.
+	 */
+	private static final int CHUNK_SIZE = 500;
+	private static final String[] PROJECTION = { MediaStore.Images.ImageColumns._ID, MediaStore.Images.ImageColumns.DATA };
+	/**
+	 * Everything in the MediaStore, images, video, audio and files on every volume
+	 */
+	private static final Uri MEDIA_URI = Uri.parse("content://" + MediaStore.AUTHORITY);
+	
+	private final ContentResolver mResolver;
+	private final Map<Uri, String> mCache;
+	private final ContentObserver mObserver;
+	private int mHits = 0;
+	private int mMisses = 0;
+	/**
+	 * Bumped by every {@link #invalidate()}, so lookups that started before it don't cache what could
+	 * now be stale
+	 */
+	private int mGeneration = 0;
+	
+	/**
+	 * Create a new resolver
+	 * @param context A context to query with. Only the application context is kept.
+	 * @param cacheSize The maximum number of paths to cache
+	 */
+	public MediaPathResolver(Context context, final int cacheSize) {
+		mResolver = context.getApplicationContext().getContentResolver();
+		mCache = new LinkedHashMap<Uri, String>(Math.min(cacheSize, 256), 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Uri, String> eldest) {
+				return size() > cacheSize;
+			}
+		};
+		mObserver = new ContentObserver(null) {
+			@Override
+			public void onChange(boolean selfChange) {
+				invalidate();
+			}
+		};
+		mResolver.registerContentObserver(MEDIA_URI, true, mObserver);
+	}
+	
+	/**
+	 * Stop listening for MediaStore changes. The resolver can still be used but the cache won't be
+	 * cleared automatically any more.
+	 */
+	public void release() {
+		mResolver.unregisterContentObserver(mObserver);
+	}
+	
+	/**
+	 * Clear the cache
+	 */
+	public void invalidate() {
+		synchronized (mCache) {
+			mCache.clear();
+			mGeneration++;
+		}
+	}
+	
+	/**
+	 * @return The number of lookups answered from the cache
+	 */
+	public int getHitCount() {
+		synchronized (mCache) {
+			return mHits;
+		}
+	}
+	
+	/**
+	 * @return The number of lookups that needed a query
+	 */
+	public int getMissCount() {
+		synchronized (mCache) {
+			return mMisses;
+		}
+	}
+	
+	/**
+	 * Resolve a single URI to a file path
+	 * @param uri The content URI
+	 * @return The path, or null if the URI couldn't be found
+	 */
+	public String resolve(Uri uri) {
+		List<Uri> uris = new ArrayList<Uri>(1);
+		uris.add(uri);
+		return resolve(uris).get(uri);
+	}
+	
+	/**
+	 * Resolve a batch of URIs to file paths
+	 * @param uris The content URIs
+	 * @return A map from each URI to its path. URIs that couldn't be found are left out.
+	 */
+	public Map<Uri, String> resolve(List<Uri> uris) {
+		Map<Uri, String> ret = new HashMap<Uri, String>(uris.size() * 2);
+		// Collection URI -> (id -> item URI) for everything not cached
+		Map<Uri, Map<String, Uri>> misses = new HashMap<Uri, Map<String, Uri>>();
+		List<Uri> others = new ArrayList<Uri>();
+		final int generation;
+		
+		synchronized (mCache) {
+			generation = mGeneration;
+			for (Uri uri : uris) {
+				String path = mCache.get(uri);
+				if (path != null) {
+					mHits++;
+					ret.put(uri, path);
+					continue;
+				}
+				mMisses++;
+				
+				Uri collection = getCollection(uri);
+				if (collection != null) {
+					String id = String.valueOf(ContentUris.parseId(uri));
+					Map<String, Uri> ids = misses.get(collection);
+					if (ids == null) {
+						ids = new HashMap<String, Uri>();
+						misses.put(collection, ids);
+					}
+					ids.put(id, uri);
+				} else {
+					others.add(uri);
+				}
+			}
+		}
+		
+		Map<Uri, String> found = new HashMap<Uri, String>();
+		for (Map.Entry<Uri, Map<String, Uri>> collection : misses.entrySet()) {
+			queryCollection(collection.getKey(), collection.getValue(), found);
+		}
+		for (Uri uri : others) {
+			String path = querySingle(uri);
+			if (path != null) {
+				found.put(uri, path);
+			}
+		}
+		
+		synchronized (mCache) {
+			if (generation == mGeneration) {
+				mCache.putAll(found);
+			}
+		}
+		ret.putAll(found);
+		return ret;
+	}
+	
+	/**
+	 * Get the collection an item URI belongs to, i.e. the URI without its id, query or fragment
+	 * @param uri The item URI
+	 * @return The collection URI, or null if the URI doesn't end in a numeric id
+	 */
+	private static Uri getCollection(Uri uri) {
+		List<String> segments = uri.getPathSegments();
+		String id = segments.size() < 2 ? null : segments.get(segments.size() - 1);
+		// More digits than that won't fit in a long
+		if (id == null || id.length() > 18 || !isNumeric(id)) {
+			return null;
+		}
+		Uri.Builder builder = uri.buildUpon().path(null).query(null).fragment(null);
+		for (int i = 0; i < segments.size() - 1; i++) {
+			builder.appendPath(segments.get(i));
+		}
+		return builder.build();
+	}
+	
+	private void queryCollection(Uri collection, Map<String, Uri> ids, Map<Uri, String> found) {
+		List<String> all = new ArrayList<String>(ids.keySet());
+		for (int start = 0; start < all.size(); start += CHUNK_SIZE) {
+			List<String> chunk = all.subList(start, Math.min(all.size(), start + CHUNK_SIZE));
+			StringBuilder selection = new StringBuilder(MediaStore.Images.ImageColumns._ID).append(" IN (");
+			for (int i = 0; i < chunk.size(); i++) {
+				selection.append(i == 0 ? "?" : ",?");
+			}
+			selection.append(')');
+			
+			Cursor cursor = null;
+			try {
+				cursor = mResolver.query(collection, PROJECTION, selection.toString(), chunk.toArray(new String[chunk.size()]), null);
+				if (cursor == null) {
+					continue;
+				}
+				int idColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns._ID);
+				int dataColumn = cursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA);
+				while (cursor.moveToNext()) {
+					Uri uri = ids.get(cursor.getString(idColumn));
+					String path = cursor.getString(dataColumn);
+					if (uri != null && path != null) {
+						found.put(uri, path);
+					}
+				}
+			} finally {
+				if (cursor != null) {
+					cursor.close();
+				}
+			}
+		}
+	}
+	
+	private String querySingle(Uri uri) {
+		Cursor cursor = null;
+		try {
+			cursor = mResolver.query(uri, new String[] { MediaStore.Images.ImageColumns.DATA }, null, null, null);
+			if (cursor == null || !cursor.moveToFirst()) {
+				return null;
+			}
+			return cursor.getString(cursor.getColumnIndexOrThrow(MediaStore.Images.ImageColumns.DATA));
+		} finally {
+			if (cursor != null) {
+				cursor.close();
+			}
+		}
+	}
+	
+	private static boolean isNumeric(String s) {
+		if (s.length() == 0) {
+			return false;
+		}
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9') {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -1,9 +1,14 @@
 package com.nickstephen.lib.misc;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.UnsupportedCharsetException;
 import java.util.List;
 
 import android.app.AlertDialog;
@@ -20,6 +25,7 @@ import android.widget.Toast;
 
 import com.nickstephen.lib.http.ByteArrayOutputStreamProgress;
 import com.nickstephen.lib.http.IWriteListener;
+import com.nickstephen.lib.http.ThrottledWriteListener;
 
 /**
  * A collection of helper static methods that are sometimes useful.
@@ -27,11 +33,6 @@ import com.nickstephen.lib.http.IWriteListener;
  *
  */
 public class StatMethods {
-	/**
-	 * A char array of all possible hex values in lower case
-	 */
-	private static final char[] hexArray = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
-
     private StatMethods() {}
 
 	/**
@@ -123,14 +124,17 @@ public class StatMethods {
 	 * @return The string representation of the hex values
 	 */
 	public static String bytesToHex(byte[] arr) {
-		char[] hexChars = new char[arr.length * 2];
-		int v;
-		for (int i = 0; i < arr.length; i++) {
-			v = arr[i] & 0xFF;
-			hexChars[2 * i] = hexArray[v >>> 4];
-			hexChars[2 * i + 1] = hexArray[v & 0x0F];
-		}
-		return new String(hexChars);
+		return Hex.encodeToString(arr);
+	}
+	
+	/**
+	 * Convert a string of hexadecimal chars (either case) back to a byte array
+	 * @param hex The string of hex chars (must be an even length)
+	 * @return The decoded byte array
+	 * @throws IllegalArgumentException If the string isn't valid hex
+	 */
+	public static byte[] hexToBytes(String hex) {
+		return Hex.decode(hex);
 	}
 	
 	/**
@@ -154,6 +158,62 @@ public class StatMethods {
 		return total.toString();
 	}
 
+	/**
+	 * Convert an InputStream to a string in a given charset. Unlike {@link #inputStreamToString(InputStream)}
+	 * the content is preserved exactly (line endings included) and read errors are thrown rather than
+	 * silently truncating the result. Note that the stream isn't rewound or closed.
+	 * @param is The InputStream to read from
+	 * @param charset The charset the content is encoded in, e.g. from {@link #getCharset(String, Charset)}
+	 * @param expectedLength The expected length of the content in bytes (e.g. the Content-Length),
+	 * used to presize the result. Pass a value <= 0 if unknown.
+	 * @return The string representation
+	 * @throws IOException If reading from the stream fails
+	 */
+	public static String inputStreamToString(InputStream is, Charset charset, long expectedLength) throws IOException {
+		Reader reader = new InputStreamReader(is, charset);
+		// Most charsets take at least 1 byte a char so the byte length is an upper bound
+		StringBuilder total = new StringBuilder(expectedLength > 0 && expectedLength < Integer.MAX_VALUE ? (int) expectedLength : 16);
+		char[] buff = BufferPool.acquireChars();
+		try {
+			int len;
+			while ((len = reader.read(buff)) != -1) {
+				total.append(buff, 0, len);
+			}
+		} finally {
+			BufferPool.release(buff);
+		}
+		return total.toString();
+	}
+	
+	/**
+	 * Get the charset declared in a Content-Type header value, e.g. "text/html; charset=ISO-8859-1"
+	 * @param contentType The Content-Type value (may be null)
+	 * @param defaultCharset The charset to return if none is declared or it isn't supported
+	 * @return The declared charset or defaultCharset
+	 */
+	public static Charset getCharset(String contentType, Charset defaultCharset) {
+		if (contentType == null) {
+			return defaultCharset;
+		}
+		for (String param : contentType.split(";")) {
+			param = param.trim();
+			if (param.regionMatches(true, 0, "charset=", 0, 8)) {
+				String name = param.substring(8).trim();
+				if (name.length() > 1 && name.startsWith("\"") && name.endsWith("\"")) {
+					name = name.substring(1, name.length() - 1);
+				}
+				try {
+					return Charset.forName(name);
+				} catch (IllegalCharsetNameException e) {
+					return defaultCharset;
+				} catch (UnsupportedCharsetException e) {
+					return defaultCharset;
+				}
+			}
+		}
+		return defaultCharset;
+	}
+
 	/**
 	 * Check whether the internet is currently available
 	 * @param ctxt The context to be used to get connectivity info
@@ -202,6 +262,86 @@ public class StatMethods {
 		return ret;
 	}
 	
+	/**
+	 * Convert an InputStream to a byte array, optimised for when the length is known up front (e.g. from
+	 * the Content-Length). The stream is read straight into an exactly sized array, which is returned as is
+	 * if the stream ends at the expected length, so no intermediate buffer or final copy is needed. Streams
+	 * of unknown (or wrong) length are read through a pooled buffer instead.
+	 * Note that the method doesn't rewind or close the stream and will read to its end.
+	 * @param is The InputStream to convert
+	 * @param expectedLength The expected length in bytes, or <= 0 if unknown
+	 * @param wListener Listener for progress updates (may be null). Given the expected length if known.
+	 * @param flags Flags passed through to the listener
+	 * @param progressBytes The minimum number of bytes between progress updates (<= 0 for no limit)
+	 * @param progressMillis The minimum number of milliseconds between progress updates (<= 0 for no limit)
+	 * @return The byte array representation
+	 * @throws IOException If reading from the stream fails
+	 */
+	public static byte[] inputStreamToBytes(InputStream is, long expectedLength, IWriteListener wListener, int flags, 
+			long progressBytes, long progressMillis) throws IOException {
+		ThrottledWriteListener listener = null;
+		if (wListener != null) {
+			listener = new ThrottledWriteListener(wListener, progressBytes, progressMillis);
+			if (expectedLength > 0) {
+				listener.setLength(expectedLength);
+			}
+		}
+		
+		long total = 0;
+		ByteArrayOutputStream bs;
+		if (expectedLength > 0 && expectedLength <= Integer.MAX_VALUE - 8) {
+			final int len = (int) expectedLength;
+			byte[] ret = new byte[len];
+			int count = 0, status;
+			while (count < len && (status = is.read(ret, count, len - count)) != -1) {
+				count += status;
+				if (listener != null) {
+					listener.registerWrite(count, flags);
+				}
+			}
+			total = count;
+			
+			int next;
+			if (count < len || (next = is.read()) == -1) {
+				if (listener != null) {
+					listener.finish(total, flags);
+				}
+				if (count == len) {
+					return ret;
+				}
+				byte[] shorter = new byte[count];
+				System.arraycopy(ret, 0, shorter, 0, count);
+				return shorter;
+			}
+			
+			// Longer than expected, fall back to growing the output. Clamped since len can be near the int limit.
+			bs = new ByteArrayOutputStream((int) Math.min((long) len + BufferPool.BUFFER_SIZE, Integer.MAX_VALUE - 8));
+			bs.write(ret, 0, len);
+			bs.write(next);
+			total++;
+		} else {
+			bs = new ByteArrayOutputStream(BufferPool.BUFFER_SIZE);
+		}
+		
+		byte[] buff = BufferPool.acquireBytes();
+		try {
+			int status;
+			while ((status = is.read(buff)) != -1) {
+				bs.write(buff, 0, status);
+				total += status;
+				if (listener != null) {
+					listener.registerWrite(total, flags);
+				}
+			}
+		} finally {
+			BufferPool.release(buff);
+		}
+		if (listener != null) {
+			listener.finish(total, flags);
+		}
+		return bs.toByteArray();
+	}
+	
 	/**
 	 * Check whether the SD-Card (or similar) is available for write access
 	 * @return True if available, false if not